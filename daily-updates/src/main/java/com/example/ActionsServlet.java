@@ -18,8 +18,16 @@ package com.example;
 
 import com.google.actions.api.App;
 import java.io.IOException;
-import java.util.function.Consumer;
-import java.util.stream.Collectors;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebInitParam;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -31,31 +39,98 @@ import org.slf4j.LoggerFactory;
  * Handles request received via HTTP POST and delegates it to your Actions app. See: [Request
  * handling in Google App
  * Engine](https://cloud.google.com/appengine/docs/standard/java/how-requests-are-handled).
+ *
+ * <p>When the container supports it, the request is put into asynchronous mode so the container
+ * thread is released while the body is read and the app builds its response. The time allowed for
+ * a response is set with the {@code asyncTimeoutMillis} init parameter, and bodies larger than
+ * {@code maxBodyBytes} are rejected. Request and response bodies are only logged for the sample
+ * of traffic selected by the {@code logSampleRate} and {@code logIntentSampleRates} init
+ * parameters; see {@link WebhookLogger}.
  */
-@WebServlet(name = "actions", value = "/")
+@WebServlet(
+    name = "actions",
+    value = "/",
+    asyncSupported = true,
+    initParams = {
+        @WebInitParam(name = "asyncTimeoutMillis", value = "30000"),
+        @WebInitParam(name = "maxBodyBytes", value = "1048576"),
+        @WebInitParam(name = "logSampleRate", value = "0.001"),
+        @WebInitParam(name = "logIntentSampleRates", value = ""),
+        @WebInitParam(name = "logMaxBodyChars", value = "4096")
+    })
 public class ActionsServlet extends HttpServlet {
   private static final Logger LOG = LoggerFactory.getLogger(ActionsServlet.class);
-  private final App updatesApp = new UpdatesApp();
+  private static final long DEFAULT_ASYNC_TIMEOUT_MILLIS = 30000L;
+  private static final int DEFAULT_MAX_BODY_BYTES = 1024 * 1024;
+  private static final double DEFAULT_LOG_SAMPLE_RATE = 0.001;
+  private static final int DEFAULT_LOG_MAX_BODY_CHARS = 4096;
+  private final App actionsApp = new UpdatesApp();
+  private long asyncTimeoutMillis = DEFAULT_ASYNC_TIMEOUT_MILLIS;
+  private int maxBodyBytes = DEFAULT_MAX_BODY_BYTES;
+  private WebhookLogger webhookLogger =
+      new WebhookLogger(
+          DEFAULT_LOG_SAMPLE_RATE, Collections.emptyMap(), DEFAULT_LOG_MAX_BODY_CHARS);
+
+  @Override
+  public void init() throws ServletException {
+    asyncTimeoutMillis = getLongInitParameter("asyncTimeoutMillis", DEFAULT_ASYNC_TIMEOUT_MILLIS);
+    maxBodyBytes = (int) getLongInitParameter("maxBodyBytes", DEFAULT_MAX_BODY_BYTES);
+    String logSampleRate = getInitParameter("logSampleRate");
+    try {
+      webhookLogger =
+          new WebhookLogger(
+              logSampleRate == null
+                  ? DEFAULT_LOG_SAMPLE_RATE
+                  : Double.parseDouble(logSampleRate.trim()),
+              WebhookLogger.parseSampleRates(getInitParameter("logIntentSampleRates")),
+              (int) getLongInitParameter("logMaxBodyChars", DEFAULT_LOG_MAX_BODY_CHARS));
+    } catch (NumberFormatException e) {
+      throw new ServletException("Invalid webhook log sample rate", e);
+    }
+  }
 
   @Override
   protected void doPost(HttpServletRequest req, HttpServletResponse res) throws IOException {
-    String body = req.getReader().lines().collect(Collectors.joining());
-    LOG.info("doPost, body = {}", body);
-    updatesApp
-        .handleRequest(body, null)
-        .thenAccept(
-            (Consumer<String>)
-                jsonResponse -> {
-                  LOG.info("Generated json = {}", jsonResponse);
-                  res.setContentType("application/json");
-                  writeResponse(res, jsonResponse);
-                })
-        .exceptionally(
-            (throwable -> {
-              LOG.error("Error in App.handleRequest ", throwable);
-              writeResponse(res, "Error handling the intent - " + throwable);
-              return null;
-            }));
+    if (req.getContentLengthLong() > maxBodyBytes) {
+      res.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+      return;
+    }
+    if (!req.isAsyncSupported()) {
+      String body;
+      try {
+        body = RequestBodyReader.readFully(req, maxBodyBytes);
+      } catch (RequestBodyReader.BodyTooLargeException e) {
+        res.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+        return;
+      }
+      handleBlocking(body, res, webhookLogger.logRequest(body));
+      return;
+    }
+
+    // Enter async mode before handing off so a response completed on this thread
+    // is still written within the async cycle.
+    AsyncContext asyncContext = req.startAsync(req, res);
+    asyncContext.setTimeout(asyncTimeoutMillis);
+    AtomicBoolean responded = new AtomicBoolean(false);
+    asyncContext.addListener(new TimeoutListener(res, responded));
+    req.getInputStream()
+        .setReadListener(
+            new RequestBodyReader(
+                req,
+                maxBodyBytes,
+                (body, throwable) -> {
+                  if (throwable == null) {
+                    handleAsync(
+                        body, res, asyncContext, responded, webhookLogger.logRequest(body));
+                  } else if (responded.compareAndSet(false, true)) {
+                    LOG.error("Error reading request body", throwable);
+                    res.setStatus(
+                        throwable instanceof RequestBodyReader.BodyTooLargeException
+                            ? HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE
+                            : HttpServletResponse.SC_BAD_REQUEST);
+                    asyncContext.complete();
+                  }
+                }));
   }
 
   @Override
@@ -68,11 +143,113 @@ public class ActionsServlet extends HttpServlet {
             "ActionsServlet is listening but requires valid POST request to respond with Action response.");
   }
 
-  private void writeResponse(HttpServletResponse res, String asJson) {
+  private long getLongInitParameter(String name, long defaultValue) throws ServletException {
+    String value = getInitParameter(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      throw new ServletException("Invalid " + name + ": " + value, e);
+    }
+  }
+
+  private void handleAsync(
+      String body,
+      HttpServletResponse res,
+      AsyncContext asyncContext,
+      AtomicBoolean responded,
+      boolean logged) {
+    actionsApp
+        .handleRequest(body, null)
+        .whenComplete(
+            (jsonResponse, throwable) -> {
+              if (!responded.compareAndSet(false, true)) {
+                LOG.warn("Dropping response for a request that already timed out");
+                return;
+              }
+              respond(res, jsonResponse, throwable, logged, asyncContext);
+            });
+  }
+
+  private void handleBlocking(String body, HttpServletResponse res, boolean logged) {
+    String jsonResponse = null;
+    Throwable throwable = null;
+    try {
+      jsonResponse =
+          actionsApp.handleRequest(body, null).get(asyncTimeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (ExecutionException e) {
+      throwable = e.getCause();
+    } catch (TimeoutException e) {
+      LOG.error("Timed out waiting for App.handleRequest");
+      res.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      return;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throwable = e;
+    }
+    respond(res, jsonResponse, throwable, logged, null);
+  }
+
+  /**
+   * Writes the app's response, or the error it failed with. The response is logged if the request
+   * was, and a non-null {@code asyncContext} is completed once the response has been written.
+   */
+  private void respond(
+      HttpServletResponse res,
+      String jsonResponse,
+      Throwable throwable,
+      boolean logged,
+      AsyncContext asyncContext) {
     try {
-      res.getWriter().write(asJson);
-    } catch (IOException e) {
-      e.printStackTrace();
+      if (throwable == null) {
+        if (logged) {
+          webhookLogger.logResponse(jsonResponse);
+        }
+        ResponseBodyWriter.write(res, "application/json", jsonResponse, asyncContext);
+      } else {
+        LOG.error("Error in App.handleRequest ", throwable);
+        ResponseBodyWriter.write(
+            res, "text/plain", "Error handling the intent - " + throwable, asyncContext);
+      }
+    } catch (IOException | RuntimeException e) {
+      LOG.error("Error writing response", e);
+      if (asyncContext != null) {
+        asyncContext.complete();
+      }
+    }
+  }
+
+  /** Answers a request with 503 if the app did not respond before the async timeout. */
+  private static final class TimeoutListener implements AsyncListener {
+    private final HttpServletResponse res;
+    private final AtomicBoolean responded;
+
+    TimeoutListener(HttpServletResponse res, AtomicBoolean responded) {
+      this.res = res;
+      this.responded = responded;
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+      if (responded.compareAndSet(false, true)) {
+        LOG.error("Timed out waiting for App.handleRequest");
+        res.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        event.getAsyncContext().complete();
+      }
     }
+
+    @Override
+    public void onError(AsyncEvent event) {
+      responded.set(true);
+      LOG.error("Async request failed", event.getThrowable());
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {}
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {}
   }
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The daily update content, built once per day and locale and then served from memory. {@link
+ * DailyUpdateScheduler} builds each day's content shortly before subscribers are due, so the
+ * requests they trigger find it ready.
+ */
+public class DailyContent {
+  private static final DailyContent SHARED = new DailyContent();
+
+  private static final Map<DayOfWeek, Integer> LOWEST_TEMPERATURES = new EnumMap<>(DayOfWeek.class);
+  static {
+    LOWEST_TEMPERATURES.put(DayOfWeek.MONDAY, 75);
+    LOWEST_TEMPERATURES.put(DayOfWeek.TUESDAY, 75);
+    LOWEST_TEMPERATURES.put(DayOfWeek.WEDNESDAY, 75);
+    LOWEST_TEMPERATURES.put(DayOfWeek.THURSDAY, 75);
+    LOWEST_TEMPERATURES.put(DayOfWeek.FRIDAY, 75);
+    LOWEST_TEMPERATURES.put(DayOfWeek.SATURDAY, 75);
+    LOWEST_TEMPERATURES.put(DayOfWeek.SUNDAY, 75);
+  }
+
+  private final PromptCatalog<Prompt> prompts;
+  private final ConcurrentMap<String, String> messages = new ConcurrentHashMap<>();
+  private final AtomicInteger builds = new AtomicInteger();
+  private volatile LocalDate newest = LocalDate.MIN;
+
+  public DailyContent() {
+    this(Prompt.catalog());
+  }
+
+  public DailyContent(PromptCatalog<Prompt> prompts) {
+    this.prompts = prompts;
+  }
+
+  public static DailyContent shared() {
+    return SHARED;
+  }
+
+  /** Returns the lowest temperature message for {@code date}, building it on first use. */
+  public String lowestTemperature(LocalDate date, String locale) {
+    if (date.isAfter(newest)) {
+      newest = date;
+      // Keep yesterday for requests that straddle midnight, drop anything older
+      String oldest = date.minusDays(1).toString();
+      messages.keySet().removeIf(key -> key.substring(0, key.indexOf('/')).compareTo(oldest) < 0);
+    }
+    return messages.computeIfAbsent(date + "/" + locale, key -> {
+      builds.incrementAndGet();
+      return prompts.get(locale, Prompt.LOWEST_TEMPERATURE)
+          .format(LOWEST_TEMPERATURES.get(date.getDayOfWeek()));
+    });
+  }
+
+  /** Number of messages built so far. */
+  int getBuilds() {
+    return builds.get();
+  }
+}
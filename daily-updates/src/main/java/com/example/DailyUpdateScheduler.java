@@ -0,0 +1,248 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import java.io.Closeable;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Time wheel of daily update subscribers. The day is divided into fixed slots, and each slot holds
+ * its subscribers grouped by locale. Once a slot comes due, the content for each of its locales is
+ * built once and handed to a {@link BatchHandler} together with at most {@code batchSize}
+ * subscribers at a time. Content for slots a few ticks ahead is built early, so it is ready before
+ * the rush of users those slots bring.
+ *
+ * <p>A tick that runs late catches up on every slot it missed, up to one full day. The first tick
+ * also handles the slot that is current when the scheduler is created.
+ *
+ * <p>The {@link #shared() shared} scheduler only warms {@link DailyContent}: the Assistant triggers
+ * each user's daily update itself, so due subscribers need nothing further. Deployments that
+ * deliver updates themselves create one with a {@link BatchHandler} that sends them.
+ */
+public class DailyUpdateScheduler implements Closeable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DailyUpdateScheduler.class);
+  private static final int MINUTES_PER_DAY = 24 * 60;
+
+  /** Locale key for subscribers whose locale is unknown. */
+  public static final String DEFAULT_LOCALE = "en-US";
+
+  /** Receives the subscribers that are due, a bounded batch at a time. */
+  public interface BatchHandler {
+    void handle(LocalDate date, String locale, String content, List<String> subscriberIds);
+  }
+
+  /** Holder so the shared scheduler is only created and started when first used. */
+  private static final class Shared {
+    private static final DailyUpdateScheduler INSTANCE = open();
+
+    private static DailyUpdateScheduler open() {
+      DailyContent dailyContent = DailyContent.shared();
+      DailyUpdateScheduler scheduler = new DailyUpdateScheduler(Clock.systemDefaultZone(),
+          Integer.getInteger("actions.dailyUpdates.slotMinutes", 1),
+          Integer.getInteger("actions.dailyUpdates.batchSize", 500),
+          Integer.getInteger("actions.dailyUpdates.lookaheadSlots", 5),
+          dailyContent::lowestTemperature,
+          // The content is built before the handler runs; delivery is up to the Assistant
+          (date, locale, content, subscriberIds) -> { });
+      scheduler.start();
+      return scheduler;
+    }
+  }
+
+  private static final class Placement {
+    final int slot;
+    final String locale;
+
+    Placement(int slot, String locale) {
+      this.slot = slot;
+      this.locale = locale;
+    }
+  }
+
+  private final Clock clock;
+  private final int slotMinutes;
+  private final int batchSize;
+  private final int lookaheadSlots;
+  private final BiFunction<LocalDate, String, String> content;
+  private final BatchHandler handler;
+  private final List<ConcurrentMap<String, Set<String>>> wheel;
+  private final ConcurrentMap<String, Placement> placements = new ConcurrentHashMap<>();
+  private final Object tickLock = new Object();
+  private ScheduledExecutorService ticker;
+
+  // Guarded by tickLock.
+  private LocalDateTime lastTick;
+
+  /**
+   * @param slotMinutes length of a slot; must divide a day evenly
+   * @param batchSize most subscribers passed to {@code handler} at once
+   * @param lookaheadSlots how many slots ahead content is built
+   * @param content builds the content for a date and locale; should cache its results
+   */
+  public DailyUpdateScheduler(Clock clock, int slotMinutes, int batchSize, int lookaheadSlots,
+      BiFunction<LocalDate, String, String> content, BatchHandler handler) {
+    if (slotMinutes <= 0 || MINUTES_PER_DAY % slotMinutes != 0) {
+      throw new IllegalArgumentException("slotMinutes must divide a day: " + slotMinutes);
+    }
+    this.clock = clock;
+    this.slotMinutes = slotMinutes;
+    this.batchSize = batchSize;
+    this.lookaheadSlots = lookaheadSlots;
+    this.content = content;
+    this.handler = handler;
+    int slots = MINUTES_PER_DAY / slotMinutes;
+    this.wheel = new ArrayList<>(slots);
+    for (int i = 0; i < slots; i++) {
+      wheel.add(new ConcurrentHashMap<>());
+    }
+    // Start one slot back so the first tick also handles the slot that is current now
+    this.lastTick = slotStart(LocalDateTime.now(clock)).minusMinutes(slotMinutes);
+  }
+
+  /**
+   * Schedules {@code subscriberId} for {@code deliveryTime} each day, replacing any earlier time. A
+   * null {@code locale} is filed under {@link #DEFAULT_LOCALE}.
+   */
+  public void subscribe(String subscriberId, LocalTime deliveryTime, String locale) {
+    if (locale == null) {
+      locale = DEFAULT_LOCALE;
+    }
+    Placement placement = new Placement(slotOf(deliveryTime), locale);
+    Placement previous = placements.put(subscriberId, placement);
+    if (previous != null) {
+      remove(subscriberId, previous);
+    }
+    wheel.get(placement.slot)
+        .computeIfAbsent(locale, key -> ConcurrentHashMap.newKeySet())
+        .add(subscriberId);
+  }
+
+  public void unsubscribe(String subscriberId) {
+    Placement previous = placements.remove(subscriberId);
+    if (previous != null) {
+      remove(subscriberId, previous);
+    }
+  }
+
+  /** Returns the process-wide scheduler for {@link DailyContent#shared()}, started on first use. */
+  public static DailyUpdateScheduler shared() {
+    return Shared.INSTANCE;
+  }
+
+  public int size() {
+    return placements.size();
+  }
+
+  /** Ticks once per slot on a daemon thread. */
+  public synchronized void start() {
+    if (ticker == null) {
+      ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "daily-update-scheduler");
+        thread.setDaemon(true);
+        return thread;
+      });
+      ticker.scheduleAtFixedRate(this::tickSafely, 0, slotMinutes, TimeUnit.MINUTES);
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    if (ticker != null) {
+      ticker.shutdownNow();
+      ticker = null;
+    }
+  }
+
+  /** Handles every slot that has come due since the last tick, then warms upcoming content. */
+  void tick() {
+    synchronized (tickLock) {
+      LocalDateTime now = LocalDateTime.now(clock);
+      LocalDateTime from = lastTick.isBefore(now.minusDays(1)) ? now.minusDays(1) : lastTick;
+      // Slots are half-open: a slot is due once the tick after its start time has passed
+      LocalDateTime slotStart = slotStart(from).plusMinutes(slotMinutes);
+      while (!slotStart.isAfter(now)) {
+        dispatch(slotStart.toLocalDate(), slotOf(slotStart.toLocalTime()));
+        slotStart = slotStart.plusMinutes(slotMinutes);
+      }
+      lastTick = now;
+      for (int ahead = 0; ahead <= lookaheadSlots; ahead++) {
+        LocalDateTime upcoming = slotStart.plusMinutes((long) ahead * slotMinutes);
+        for (String locale : wheel.get(slotOf(upcoming.toLocalTime())).keySet()) {
+          content.apply(upcoming.toLocalDate(), locale);
+        }
+      }
+    }
+  }
+
+  private void tickSafely() {
+    try {
+      tick();
+    } catch (RuntimeException e) {
+      // Keep the schedule alive; the next tick catches up
+      LOGGER.error("Daily update tick failed", e);
+    }
+  }
+
+  private void dispatch(LocalDate date, int slot) {
+    for (Map.Entry<String, Set<String>> bucket : wheel.get(slot).entrySet()) {
+      String locale = bucket.getKey();
+      String message = content.apply(date, locale);
+      List<String> batch = new ArrayList<>(Math.min(batchSize, bucket.getValue().size()));
+      for (String subscriberId : bucket.getValue()) {
+        batch.add(subscriberId);
+        if (batch.size() == batchSize) {
+          handler.handle(date, locale, message, batch);
+          batch = new ArrayList<>(batchSize);
+        }
+      }
+      if (!batch.isEmpty()) {
+        handler.handle(date, locale, message, batch);
+      }
+    }
+  }
+
+  private void remove(String subscriberId, Placement placement) {
+    Set<String> bucket = wheel.get(placement.slot).get(placement.locale);
+    if (bucket != null) {
+      bucket.remove(subscriberId);
+    }
+  }
+
+  private LocalDateTime slotStart(LocalDateTime time) {
+    int minute = time.getHour() * 60 + time.getMinute();
+    return time.toLocalDate().atStartOfDay().plusMinutes(minute - minute % slotMinutes);
+  }
+
+  private int slotOf(LocalTime time) {
+    return (time.getHour() * 60 + time.getMinute()) / slotMinutes;
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+/** The prompts this action says, defined per locale in {@code prompts.properties}. */
+enum Prompt {
+  WELCOME_NO_SCREEN,
+  WELCOME_UNVERIFIED,
+  WELCOME,
+  SUGGESTION_HEAR_LOWEST_TEMPERATURE,
+  LOWEST_TEMPERATURE,
+  SUGGEST_DAILY_UPDATES,
+  SUGGESTION_SEND_DAILY_UPDATES,
+  SUBSCRIBED,
+  NOT_SUBSCRIBED;
+
+  private static final PromptCatalog<Prompt> CATALOG = PromptCatalog.load(Prompt.class, "prompts");
+
+  static PromptCatalog<Prompt> catalog() {
+    return CATALOG;
+  }
+}
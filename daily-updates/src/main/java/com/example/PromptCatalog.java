@@ -0,0 +1,264 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Prompts for every locale, loaded from {@code <baseName>.properties} files on the classpath.
+ *
+ * <p>Each locale resolves to an array indexed by the ordinal of the prompt key, with any prompt the
+ * locale's file leaves out already filled in from the next file in its fallback chain: {@code
+ * <baseName>_fr_CA}, then {@code <baseName>_fr}, then {@code <baseName>}, which must define every
+ * key. Looking a prompt up is then one map read and one array read. Locales listed in the {@code
+ * actions.prompts.locales} system property are loaded up front; any other locale is resolved the
+ * first time it is seen and kept.
+ *
+ * <p>Prompts may take arguments, written {@code {0}}, {@code {1}} and so on. A doubled opening
+ * brace stands for a literal one. Each prompt is parsed once, when its file is loaded.
+ */
+final class PromptCatalog<K extends Enum<K>> {
+  static final String LOCALES_PROPERTY = "actions.prompts.locales";
+
+  // Requests choose the locale, so stop remembering new ones past this point
+  private static final int MAX_CACHED_LOCALES = 256;
+
+  private final ClassLoader classLoader;
+  private final String baseName;
+  private final K[] keys;
+  private final Message[] root;
+  private final ConcurrentMap<String, Message[]> files = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Message[]> locales = new ConcurrentHashMap<>();
+
+  private PromptCatalog(ClassLoader classLoader, String baseName, Class<K> keyType) {
+    this.classLoader = classLoader;
+    this.baseName = baseName;
+    this.keys = keyType.getEnumConstants();
+    this.root = load(baseName, null);
+  }
+
+  /**
+   * Loads the prompts for {@code keyType} from {@code baseName} and the locales named in {@link
+   * #LOCALES_PROPERTY}, failing fast if a file is missing a default prompt or has unknown keys.
+   */
+  static <K extends Enum<K>> PromptCatalog<K> load(Class<K> keyType, String baseName) {
+    return load(keyType, baseName, PromptCatalog.class.getClassLoader());
+  }
+
+  /** Like {@link #load(Class, String)}, but reads the files through {@code classLoader}. */
+  static <K extends Enum<K>> PromptCatalog<K> load(
+      Class<K> keyType, String baseName, ClassLoader classLoader) {
+    PromptCatalog<K> catalog = new PromptCatalog<>(classLoader, baseName, keyType);
+    String preload = System.getProperty(LOCALES_PROPERTY, "");
+    for (String locale : preload.split(",")) {
+      if (!locale.trim().isEmpty()) {
+        catalog.messages(locale.trim());
+      }
+    }
+    return catalog;
+  }
+
+  /** Returns the prompt {@code key} for {@code locale}, or the default prompt if it is null. */
+  Message get(String locale, K key) {
+    return messages(locale)[key.ordinal()];
+  }
+
+  /** Returns the text of the prompt {@code key}, which must not take arguments. */
+  String text(String locale, K key) {
+    return get(locale, key).text();
+  }
+
+  private Message[] messages(String locale) {
+    if (locale == null) {
+      return root;
+    }
+    Message[] messages = locales.get(locale);
+    if (messages == null) {
+      messages = resolve(locale);
+      if (locales.size() < MAX_CACHED_LOCALES) {
+        locales.putIfAbsent(locale, messages);
+      }
+    }
+    return messages;
+  }
+
+  private Message[] resolve(String tag) {
+    Locale locale = Locale.forLanguageTag(tag.replace('_', '-'));
+    Message[] messages = root;
+    if (!locale.getLanguage().isEmpty()) {
+      String language = locale.getLanguage();
+      messages = file(language, messages);
+      if (!locale.getCountry().isEmpty()) {
+        messages = file(language + "_" + locale.getCountry(), messages);
+      }
+    }
+    return messages;
+  }
+
+  private Message[] file(String suffix, Message[] parent) {
+    return files.computeIfAbsent(suffix, key -> load(baseName + "_" + key, parent));
+  }
+
+  /** Loads {@code name} over {@code parent}, or returns {@code parent} if there is no file. */
+  private Message[] load(String name, Message[] parent) {
+    Properties properties = new Properties();
+    try (InputStream in = classLoader.getResourceAsStream(name + ".properties")) {
+      if (in == null) {
+        if (parent == null) {
+          throw new IllegalStateException("Missing " + name + ".properties");
+        }
+        return parent;
+      }
+      try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+        properties.load(reader);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to read " + name + ".properties", e);
+    }
+
+    Map<String, K> byName = new HashMap<>();
+    for (K key : keys) {
+      byName.put(key.name(), key);
+    }
+    for (String property : properties.stringPropertyNames()) {
+      if (!byName.containsKey(property)) {
+        throw new IllegalStateException("Unknown prompt " + property + " in " + name);
+      }
+    }
+
+    Message[] messages = new Message[keys.length];
+    for (K key : keys) {
+      String pattern = properties.getProperty(key.name());
+      Message inherited = parent == null ? null : parent[key.ordinal()];
+      if (pattern == null && inherited == null) {
+        throw new IllegalStateException("Missing prompt " + key.name() + " in " + name);
+      } else if (pattern == null || (inherited != null && inherited.pattern.equals(pattern))) {
+        messages[key.ordinal()] = inherited;
+      } else {
+        messages[key.ordinal()] = Message.compile(pattern, name + "/" + key.name());
+      }
+    }
+    return messages;
+  }
+
+  /** A prompt parsed into literal text and numbered argument slots. */
+  static final class Message {
+    private static final ThreadLocal<StringBuilder> BUILDER =
+        ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+    private final String pattern;
+    // A segment is either a literal String or the Integer index of an argument
+    private final Object[] segments;
+    private final int arguments;
+    // The rendered text when there are no arguments
+    private final String text;
+
+    private Message(String pattern, Object[] segments, int arguments) {
+      this.pattern = pattern;
+      this.segments = segments;
+      this.arguments = arguments;
+      this.text = arguments == 0 ? concat(segments).intern() : null;
+    }
+
+    static Message compile(String pattern, String source) {
+      List<Object> segments = new ArrayList<>();
+      StringBuilder literal = new StringBuilder();
+      int arguments = 0;
+      int i = 0;
+      while (i < pattern.length()) {
+        char c = pattern.charAt(i);
+        if (c == '{' && pattern.startsWith("{{", i)) {
+          literal.append('{');
+          i += 2;
+        } else if (c == '{') {
+          int end = pattern.indexOf('}', i);
+          int index;
+          try {
+            index = end < 0 ? -1 : Integer.parseInt(pattern.substring(i + 1, end));
+          } catch (NumberFormatException e) {
+            index = -1;
+          }
+          if (index < 0) {
+            throw new IllegalStateException("Bad argument at " + i + " in " + source);
+          }
+          if (literal.length() > 0) {
+            segments.add(literal.toString());
+            literal.setLength(0);
+          }
+          segments.add(index);
+          arguments = Math.max(arguments, index + 1);
+          i = end + 1;
+        } else {
+          literal.append(c);
+          i++;
+        }
+      }
+      if (literal.length() > 0) {
+        segments.add(literal.toString());
+      }
+      return new Message(pattern, segments.toArray(), arguments);
+    }
+
+    /** Returns the prompt; only for prompts without arguments. */
+    String text() {
+      if (text == null) {
+        throw new IllegalStateException(pattern + " takes " + arguments + " arguments");
+      }
+      return text;
+    }
+
+    /** Returns the prompt with its arguments filled in from {@code args}. */
+    String format(Object... args) {
+      if (args.length < arguments) {
+        throw new IllegalArgumentException(pattern + " takes " + arguments + " arguments");
+      }
+      if (text != null) {
+        return text;
+      }
+      StringBuilder out = BUILDER.get();
+      out.setLength(0);
+      for (Object segment : segments) {
+        if (segment instanceof String) {
+          out.append((String) segment);
+        } else {
+          out.append(args[(Integer) segment]);
+        }
+      }
+      return out.toString();
+    }
+
+    private static String concat(Object[] segments) {
+      StringBuilder out = new StringBuilder();
+      for (Object segment : segments) {
+        out.append((String) segment);
+      }
+      return out.toString();
+    }
+  }
+}
@@ -23,46 +23,50 @@ import com.google.actions.api.DialogflowApp;
 import com.google.actions.api.ForIntent;
 import com.google.actions.api.response.ResponseBuilder;
 import com.google.actions.api.response.helperintent.RegisterUpdate;
-import java.time.DayOfWeek;
+import com.google.api.services.actions_fulfillment.v2.model.User;
 import java.time.LocalDate;
-import java.util.HashMap;
-import java.util.Map;
+import java.time.LocalTime;
 
 public class UpdatesApp extends DialogflowApp {
 
-  private static final Map<DayOfWeek, Integer> LOWEST_TEMPERATURES = new HashMap<>();
-  static {
-    LOWEST_TEMPERATURES.put(DayOfWeek.MONDAY, 75);
-    LOWEST_TEMPERATURES.put(DayOfWeek.TUESDAY, 75);
-    LOWEST_TEMPERATURES.put(DayOfWeek.WEDNESDAY, 75);
-    LOWEST_TEMPERATURES.put(DayOfWeek.THURSDAY, 75);
-    LOWEST_TEMPERATURES.put(DayOfWeek.FRIDAY, 75);
-    LOWEST_TEMPERATURES.put(DayOfWeek.SATURDAY, 75);
-    LOWEST_TEMPERATURES.put(DayOfWeek.SUNDAY, 75);
+  private final DailyContent dailyContent;
+  private final DailyUpdateScheduler dailyUpdateScheduler;
+  private final PromptCatalog<Prompt> prompts;
+
+  public UpdatesApp() {
+    this(DailyContent.shared(), DailyUpdateScheduler.shared(), Prompt.catalog());
+  }
+
+  /**
+   * @param dailyUpdateScheduler receives confirmed subscriptions so their content is built ahead
+   *     of time, or null to build it on demand
+   */
+  public UpdatesApp(DailyContent dailyContent, DailyUpdateScheduler dailyUpdateScheduler,
+      PromptCatalog<Prompt> prompts) {
+    this.dailyContent = dailyContent;
+    this.dailyUpdateScheduler = dailyUpdateScheduler;
+    this.prompts = prompts;
   }
 
   @ForIntent("Default Welcome Intent")
   public ActionResponse welcome(ActionRequest request) {
     ResponseBuilder responseBuilder = getResponseBuilder(request);
+    String locale = localeOf(request);
     if (!request.hasCapability(Capability.SCREEN_OUTPUT.getValue())) {
       // User engagement features aren't currently supported on speaker-only devices
       // See docs: https://developers.google.com/actions/assistant/updates/overview
-      responseBuilder.add("Hi! Welcome to Lowest Temperature Updates! " +
-          "To learn about user engagement you will need to switch to " +
-          "a screened device.");
+      responseBuilder.add(prompts.text(locale, Prompt.WELCOME_NO_SCREEN));
       responseBuilder.endConversation();
     } else if (!request.getUser().getUserVerificationStatus().equals("VERIFIED")) {
       // User engagement features aren't currently for non-verified users
       // See docs: https://developers.google.com/actions/assistant/guest-users
-      responseBuilder.add("Hi! Welcome to Lowest Temperature Updates! " +
-          "To learn about user engagement you'll need to be a verified user.");
+      responseBuilder.add(prompts.text(locale, Prompt.WELCOME_UNVERIFIED));
       responseBuilder.endConversation();
     } else {
       responseBuilder
-          .add("Hi! Welcome to Lowest Temperature Updates! " +
-              "I can tell you the lowest temperature each day.")
+          .add(prompts.text(locale, Prompt.WELCOME))
           .addSuggestions(new String[] {
-              "Hear lowest temperature"
+              prompts.text(locale, Prompt.SUGGESTION_HEAR_LOWEST_TEMPERATURE)
           });
     }
     return responseBuilder.build();
@@ -72,14 +76,13 @@ public class UpdatesApp extends DialogflowApp {
   @ForIntent("Daily Lowest Temperature")
   public ActionResponse dailyLowestTemperature(ActionRequest request) {
     ResponseBuilder responseBuilder = getResponseBuilder(request);
-    Integer lowestTemperature =
-        LOWEST_TEMPERATURES.get(LocalDate.now().getDayOfWeek());
+    String locale = localeOf(request);
+    String lowestTemperature = dailyContent.lowestTemperature(LocalDate.now(), locale);
     responseBuilder
-        .add("The lowest temperature for today is " +  lowestTemperature + " degrees Fahrenheit.")
-        .add("I can send you daily updates with the lowest temperature of " +
-            "the day. Would you like that?")
+        .add(lowestTemperature)
+        .add(prompts.text(locale, Prompt.SUGGEST_DAILY_UPDATES))
         .addSuggestions(new String[] {
-            "Send daily updates"
+            prompts.text(locale, Prompt.SUGGESTION_SEND_DAILY_UPDATES)
         });
     return responseBuilder.build();
   }
@@ -101,11 +104,24 @@ public class UpdatesApp extends DialogflowApp {
   public ActionResponse confirmDailyUpdatesSubscription(ActionRequest request) {
     ResponseBuilder responseBuilder = getResponseBuilder(request);
     if (request.isUpdateRegistered()) {
-      responseBuilder.add("Ok, I'll start giving you daily updates.");
+      User user = request.getUser();
+      if (dailyUpdateScheduler != null && user != null && user.getUserId() != null) {
+        // The time the user picks is not sent to the webhook, so plan for
+        // the time of day they subscribed
+        String locale = user.getLocale() != null
+            ? user.getLocale() : DailyUpdateScheduler.DEFAULT_LOCALE;
+        dailyUpdateScheduler.subscribe(user.getUserId(), LocalTime.now(), locale);
+      }
+      responseBuilder.add(prompts.text(localeOf(request), Prompt.SUBSCRIBED));
     } else {
-      responseBuilder.add("Ok, I won't give you daily updates.");
+      responseBuilder.add(prompts.text(localeOf(request), Prompt.NOT_SUBSCRIBED));
     }
     return responseBuilder.endConversation().build();
   }
   // [END confirm_daily_updates_subscription_df]
+
+  private static String localeOf(ActionRequest request) {
+    User user = request.getUser();
+    return user == null ? null : user.getLocale();
+  }
 }
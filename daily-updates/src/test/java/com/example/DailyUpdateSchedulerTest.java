@@ -0,0 +1,148 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+public class DailyUpdateSchedulerTest {
+
+  /** Clock that only moves when told to. */
+  private static final class ManualClock extends Clock {
+    private Instant now;
+
+    ManualClock(LocalDateTime start) {
+      now = start.toInstant(ZoneOffset.UTC);
+    }
+
+    void advanceMinutes(long minutes) {
+      now = now.plusSeconds(minutes * 60);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Instant instant() {
+      return now;
+    }
+  }
+
+  private static final class Batch {
+    final LocalDate date;
+    final String locale;
+    final List<String> subscriberIds;
+
+    Batch(LocalDate date, String locale, List<String> subscriberIds) {
+      this.date = date;
+      this.locale = locale;
+      this.subscriberIds = subscriberIds;
+    }
+  }
+
+  @Test
+  public void dueSubscribersAreEmittedInBoundedBatchesWithContentBuiltOnce() {
+    ManualClock clock = new ManualClock(LocalDateTime.of(2019, 9, 24, 7, 50, 30));
+    DailyContent content = new DailyContent();
+    List<Batch> batches = new ArrayList<>();
+    DailyUpdateScheduler scheduler = new DailyUpdateScheduler(clock, 5, 10, 2,
+        content::lowestTemperature,
+        (date, locale, message, ids) -> batches.add(new Batch(date, locale, ids)));
+    for (int i = 0; i < 25; i++) {
+      scheduler.subscribe("en-" + i, LocalTime.of(8, 3), "en-US");
+    }
+    scheduler.subscribe("fr-0", LocalTime.of(8, 0), "fr-FR");
+    scheduler.subscribe("later", LocalTime.of(9, 0), "en-US");
+    scheduler.subscribe("moved", LocalTime.of(8, 0), "en-US");
+    scheduler.subscribe("moved", LocalTime.of(12, 0), "en-US");
+
+    clock.advanceMinutes(5);
+    scheduler.tick();
+    assertTrue(batches.isEmpty());
+    // The 08:00 slot is within the lookahead, so its content is already built
+    assertEquals(2, content.getBuilds());
+
+    clock.advanceMinutes(5);
+    scheduler.tick();
+    assertEquals(4, batches.size());
+    Set<String> delivered = new HashSet<>();
+    for (Batch batch : batches) {
+      assertTrue(batch.subscriberIds.size() <= 10);
+      assertEquals(LocalDate.of(2019, 9, 24), batch.date);
+      delivered.addAll(batch.subscriberIds);
+    }
+    assertEquals(26, delivered.size());
+    assertEquals(2, content.getBuilds());
+  }
+
+  @Test
+  public void firstTickHandlesTheCurrentSlot() {
+    ManualClock clock = new ManualClock(LocalDateTime.of(2019, 9, 24, 8, 2));
+    List<Batch> batches = new ArrayList<>();
+    DailyUpdateScheduler scheduler = new DailyUpdateScheduler(clock, 5, 100, 0,
+        new DailyContent()::lowestTemperature,
+        (date, locale, message, ids) -> batches.add(new Batch(date, locale, ids)));
+    scheduler.subscribe("now", LocalTime.of(8, 3), null);
+
+    scheduler.tick();
+
+    assertEquals(1, batches.size());
+    assertEquals(DailyUpdateScheduler.DEFAULT_LOCALE, batches.get(0).locale);
+    assertEquals("now", batches.get(0).subscriberIds.get(0));
+  }
+
+  @Test
+  public void missedSlotsAreCaughtUpAcrossMidnight() {
+    ManualClock clock = new ManualClock(LocalDateTime.of(2019, 9, 24, 23, 50));
+    DailyContent content = new DailyContent();
+    List<Batch> batches = new ArrayList<>();
+    DailyUpdateScheduler scheduler = new DailyUpdateScheduler(clock, 1, 100, 0,
+        content::lowestTemperature,
+        (date, locale, message, ids) -> batches.add(new Batch(date, locale, ids)));
+    scheduler.subscribe("late", LocalTime.of(23, 55), "en-US");
+    scheduler.subscribe("early", LocalTime.of(0, 5), "en-US");
+
+    clock.advanceMinutes(30);
+    scheduler.tick();
+
+    assertEquals(2, batches.size());
+    assertEquals(LocalDate.of(2019, 9, 24), batches.get(0).date);
+    assertEquals("late", batches.get(0).subscriberIds.get(0));
+    assertEquals(LocalDate.of(2019, 9, 25), batches.get(1).date);
+    assertEquals("early", batches.get(1).subscriberIds.get(0));
+  }
+}
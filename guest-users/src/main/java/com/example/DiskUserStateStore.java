@@ -0,0 +1,437 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link UserStateStore} backed by a log file on local disk.
+ *
+ * <p>Every change is appended to the log as a length-prefixed, checksummed record, and an
+ * in-memory index maps each user id to its latest record. Writes are write-behind: {@link #put}
+ * and {@link #remove} only record the change in memory and return, and a single writer thread
+ * appends whatever has accumulated with one fsync per batch. Repeated writes for the same user
+ * before a batch is written collapse into one record. Reads see pending writes, then an LRU cache
+ * of recently used state, and only then go to disk.
+ *
+ * <p>On open the log is replayed to rebuild the index, a torn tail left by a crash is truncated,
+ * and the log is rewritten without superseded records once they make up most of it. Changes not
+ * yet written when the process dies are lost; call {@link #flush} where that matters.
+ */
+public class DiskUserStateStore implements UserStateStore {
+  static final int DEFAULT_CACHE_SIZE = 10000;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(DiskUserStateStore.class);
+  private static final String LOG_FILE = "users.log";
+  private static final int HEADER_BYTES = 8;
+  private static final int MAX_RECORD_BYTES = 4 * 1024 * 1024;
+  private static final int MAX_BATCH = 1024;
+  private static final long COMPACT_MIN_BYTES = 1024 * 1024;
+  private static final long RETRY_DELAY_MILLIS = 1000;
+  private static final byte OP_PUT = 1;
+  private static final byte OP_REMOVE = 2;
+  private static final Object REMOVED = new Object();
+  private static final Object STOP = new Object();
+
+  private final Path file;
+  private final FileChannel channel;
+  private final ConcurrentMap<String, Long> index = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Object> pending = new ConcurrentHashMap<>();
+  private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+  private final Map<String, String> cache;
+  private final Thread writer;
+  private volatile boolean closed;
+
+  // Only touched by the writer thread once open.
+  private long end;
+
+  public DiskUserStateStore(Path directory, int cacheSize) throws IOException {
+    Files.createDirectories(directory);
+    this.file = directory.resolve(LOG_FILE);
+    this.cache = new LinkedHashMap<String, String>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+        return size() > cacheSize;
+      }
+    };
+    this.channel = open(file);
+    this.writer = new Thread(this::writeLoop, "user-state-writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  @Override
+  public String get(String userId) throws IOException {
+    ensureOpen();
+    Object value = pending.get(userId);
+    if (value != null) {
+      return value == REMOVED ? null : (String) value;
+    }
+    synchronized (cache) {
+      String cached = cache.get(userId);
+      if (cached != null) {
+        return cached;
+      }
+    }
+    Long offset = index.get(userId);
+    if (offset == null) {
+      return null;
+    }
+    String state = readState(offset);
+    synchronized (cache) {
+      // Only cache what was read if the writer has not moved on since
+      if (Objects.equals(index.get(userId), offset)) {
+        cache.put(userId, state);
+      }
+    }
+    return state;
+  }
+
+  @Override
+  public void put(String userId, String state) throws IOException {
+    enqueue(userId, Objects.requireNonNull(state));
+  }
+
+  @Override
+  public void remove(String userId) throws IOException {
+    enqueue(userId, REMOVED);
+  }
+
+  @Override
+  public Set<String> userIds() throws IOException {
+    ensureOpen();
+    Set<String> userIds = new HashSet<>(index.keySet());
+    for (Map.Entry<String, Object> entry : pending.entrySet()) {
+      if (entry.getValue() == REMOVED) {
+        userIds.remove(entry.getKey());
+      } else {
+        userIds.add(entry.getKey());
+      }
+    }
+    return userIds;
+  }
+
+  /** Blocks until every change made before the call is on disk. */
+  public void flush() throws IOException {
+    ensureOpen();
+    CompletableFuture<Void> barrier = new CompletableFuture<>();
+    queue.add(barrier);
+    await(barrier);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    try {
+      flush();
+    } finally {
+      closed = true;
+      queue.add(STOP);
+      try {
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      channel.close();
+    }
+  }
+
+  private void enqueue(String userId, Object value) throws IOException {
+    ensureOpen();
+    if (pending.put(userId, value) == null) {
+      queue.add(userId);
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    if (closed) {
+      throw new IOException("User state store is closed");
+    }
+  }
+
+  private void writeLoop() {
+    List<Object> items = new ArrayList<>();
+    while (true) {
+      items.clear();
+      try {
+        items.add(queue.take());
+      } catch (InterruptedException e) {
+        return;
+      }
+      queue.drainTo(items, MAX_BATCH - 1);
+      Set<String> userIds = new LinkedHashSet<>();
+      List<CompletableFuture<Void>> barriers = new ArrayList<>();
+      boolean stop = false;
+      for (Object item : items) {
+        if (item == STOP) {
+          stop = true;
+        } else if (item instanceof CompletableFuture) {
+          @SuppressWarnings("unchecked")
+          CompletableFuture<Void> barrier = (CompletableFuture<Void>) item;
+          barriers.add(barrier);
+        } else {
+          userIds.add((String) item);
+        }
+      }
+      try {
+        writeBatch(userIds);
+        barriers.forEach(barrier -> barrier.complete(null));
+      } catch (IOException e) {
+        LOGGER.error("Could not write user state, retrying in {} ms", RETRY_DELAY_MILLIS, e);
+        barriers.forEach(barrier -> barrier.completeExceptionally(e));
+        if (!stop) {
+          queue.addAll(userIds);
+          try {
+            Thread.sleep(RETRY_DELAY_MILLIS);
+          } catch (InterruptedException ie) {
+            return;
+          }
+        }
+      }
+      if (stop) {
+        return;
+      }
+    }
+  }
+
+  private void writeBatch(Set<String> userIds) throws IOException {
+    ByteArrayOutputStream batch = new ByteArrayOutputStream();
+    Map<String, Object> written = new LinkedHashMap<>();
+    Map<String, Long> offsets = new HashMap<>();
+    for (String userId : userIds) {
+      Object value = pending.get(userId);
+      if (value == null) {
+        continue;
+      }
+      offsets.put(userId, end + batch.size());
+      writeRecord(batch, userId, value == REMOVED ? null : (String) value);
+      written.put(userId, value);
+    }
+    if (written.isEmpty()) {
+      return;
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(batch.toByteArray());
+    long position = end;
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+    channel.force(false);
+    end = position;
+    for (Map.Entry<String, Object> entry : written.entrySet()) {
+      String userId = entry.getKey();
+      Object value = entry.getValue();
+      synchronized (cache) {
+        if (value == REMOVED) {
+          index.remove(userId);
+          cache.remove(userId);
+        } else {
+          index.put(userId, offsets.get(userId));
+          cache.put(userId, (String) value);
+        }
+      }
+      // A newer change arrived while this one was being written; write it next
+      if (!pending.remove(userId, value)) {
+        queue.add(userId);
+      }
+    }
+  }
+
+  private static void writeRecord(ByteArrayOutputStream out, String userId, String state)
+      throws IOException {
+    byte[] id = userId.getBytes(StandardCharsets.UTF_8);
+    byte[] body = state == null ? new byte[0] : state.getBytes(StandardCharsets.UTF_8);
+    int length = 1 + 4 + id.length + body.length;
+    if (length > MAX_RECORD_BYTES) {
+      throw new IOException("User state for " + userId + " is " + length + " bytes");
+    }
+    ByteBuffer payload = ByteBuffer.allocate(length);
+    payload.put(state == null ? OP_REMOVE : OP_PUT).putInt(id.length).put(id).put(body);
+    CRC32 crc = new CRC32();
+    crc.update(payload.array(), 0, length);
+    DataOutputStream data = new DataOutputStream(out);
+    data.writeInt(length);
+    data.writeInt((int) crc.getValue());
+    data.write(payload.array());
+  }
+
+  private String readState(long offset) throws IOException {
+    ByteBuffer payload = readPayload(channel, offset, channel.size());
+    if (payload == null) {
+      throw new IOException("Corrupt user state record at " + offset + " in " + file);
+    }
+    Record record = Record.parse(payload);
+    return record.state;
+  }
+
+  /** Returns the checksummed payload of the record at {@code offset}, or null if it is torn. */
+  private static ByteBuffer readPayload(FileChannel channel, long offset, long size)
+      throws IOException {
+    if (offset + HEADER_BYTES > size) {
+      return null;
+    }
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    readFully(channel, header, offset);
+    int length = header.getInt(0);
+    int checksum = header.getInt(4);
+    if (length <= 0 || length > MAX_RECORD_BYTES || offset + HEADER_BYTES + length > size) {
+      return null;
+    }
+    ByteBuffer payload = ByteBuffer.allocate(length);
+    readFully(channel, payload, offset + HEADER_BYTES);
+    CRC32 crc = new CRC32();
+    crc.update(payload.array(), 0, length);
+    return (int) crc.getValue() == checksum ? payload : null;
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      int n = channel.read(buffer, position + buffer.position());
+      if (n < 0) {
+        throw new IOException("Unexpected end of user state log");
+      }
+    }
+  }
+
+  /** Opens the log, rebuilding the index and compacting it if it is mostly dead records. */
+  private FileChannel open(Path file) throws IOException {
+    FileChannel channel = FileChannel.open(file,
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    Map<String, Long> lengths = new HashMap<>();
+    long size = channel.size();
+    long position = 0;
+    while (true) {
+      ByteBuffer payload = readPayload(channel, position, size);
+      if (payload == null) {
+        break;
+      }
+      Record record = Record.parse(payload);
+      long recordBytes = HEADER_BYTES + payload.capacity();
+      if (record.state == null) {
+        index.remove(record.userId);
+        lengths.remove(record.userId);
+      } else {
+        index.put(record.userId, position);
+        lengths.put(record.userId, recordBytes);
+      }
+      position += recordBytes;
+    }
+    if (position < size) {
+      LOGGER.warn("Truncating {} bytes of torn user state at the end of {}",
+          size - position, file);
+      channel.truncate(position);
+      channel.force(true);
+    }
+    long live = lengths.values().stream().mapToLong(Long::longValue).sum();
+    end = position;
+    if (position > COMPACT_MIN_BYTES && position > 2 * live) {
+      channel = compact(channel);
+    }
+    return channel;
+  }
+
+  private FileChannel compact(FileChannel channel) throws IOException {
+    Path compacted = file.resolveSibling(LOG_FILE + ".tmp");
+    Map<String, Long> offsets = new HashMap<>();
+    long position = 0;
+    try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      for (Map.Entry<String, Long> entry : index.entrySet()) {
+        ByteBuffer payload = readPayload(channel, entry.getValue(), end);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + payload.capacity());
+        CRC32 crc = new CRC32();
+        crc.update(payload.array(), 0, payload.capacity());
+        record.putInt(payload.capacity()).putInt((int) crc.getValue()).put(payload.array());
+        record.flip();
+        offsets.put(entry.getKey(), position);
+        while (record.hasRemaining()) {
+          position += out.write(record, position);
+        }
+      }
+      out.force(true);
+    }
+    LOGGER.info("Compacted user state log from {} to {} bytes", end, position);
+    channel.close();
+    Files.move(compacted, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    index.putAll(offsets);
+    end = position;
+    return FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+  }
+
+  private static void await(CompletableFuture<Void> barrier) throws IOException {
+    try {
+      barrier.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for user state to be written");
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof IOException
+          ? (IOException) e.getCause() : new IOException(e.getCause());
+    }
+  }
+
+  private static final class Record {
+    final String userId;
+    final String state;
+
+    private Record(String userId, String state) {
+      this.userId = userId;
+      this.state = state;
+    }
+
+    static Record parse(ByteBuffer payload) {
+      byte[] bytes = payload.array();
+      byte op = bytes[0];
+      int idLength = payload.getInt(1);
+      String userId = new String(bytes, 5, idLength, StandardCharsets.UTF_8);
+      String state = op == OP_REMOVE ? null : new String(bytes, 5 + idLength,
+          bytes.length - 5 - idLength, StandardCharsets.UTF_8);
+      return new Record(userId, state);
+    }
+  }
+}
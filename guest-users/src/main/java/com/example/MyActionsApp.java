@@ -21,13 +21,29 @@ import com.google.actions.api.ActionResponse;
 import com.google.actions.api.DialogflowApp;
 import com.google.actions.api.ForIntent;
 import com.google.actions.api.response.ResponseBuilder;
+import java.io.IOException;
 
 public class MyActionsApp extends DialogflowApp {
 
+  private static final boolean USER_STATE_ON_SERVER =
+      Boolean.getBoolean("actions.userStateOnServer");
+
+  private final UserStateStore userStateStore;
+
+  public MyActionsApp() {
+    this(USER_STATE_ON_SERVER ? UserStateStore.shared() : null);
+  }
+
+  /** @param userStateStore where preferences are kept, or null to keep them in userStorage */
+  public MyActionsApp(UserStateStore userStateStore) {
+    this.userStateStore = userStateStore;
+  }
+
   @ForIntent("Default Welcome Intent")
-  public ActionResponse welcome(ActionRequest request) {
+  public ActionResponse welcome(ActionRequest request) throws IOException {
     ResponseBuilder responseBuilder = getResponseBuilder(request);
-    String savedColor = (String) request.getUserStorage().get("favoriteColor");
+    String savedColor = (String) UserState.load(responseBuilder.getUserStorage(), userStateStore)
+        .values().get("favoriteColor");
     if (savedColor != null) {
       responseBuilder.add("Hey there! I remember your favorite color is " + savedColor);
       responseBuilder.add("Can you give me another color to remember?");
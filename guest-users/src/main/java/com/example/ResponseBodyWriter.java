@@ -0,0 +1,179 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Writes a response body as UTF-8 with an explicit Content-Length, so the container does not fall
+ * back to chunked encoding. The body is encoded once into a pooled buffer that is written straight
+ * to the {@link ServletOutputStream}; in async mode a {@link WriteListener} drains it without
+ * blocking and completes the {@link AsyncContext} when done.
+ */
+final class ResponseBodyWriter implements WriteListener {
+  private static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+  private static final int MAX_POOLED_BUFFER_SIZE = 256 * 1024;
+  private static final int WRITE_CHUNK_SIZE = 32 * 1024;
+  private static final BlockingQueue<EncodedBody> POOL = new ArrayBlockingQueue<>(64);
+
+  private final ServletOutputStream output;
+  private final AsyncContext asyncContext;
+  private EncodedBody body;
+  private int offset;
+
+  private ResponseBodyWriter(
+      ServletOutputStream output, AsyncContext asyncContext, EncodedBody body) {
+    this.output = output;
+    this.asyncContext = asyncContext;
+    this.body = body;
+  }
+
+  /**
+   * Writes {@code content} to {@code res}. If {@code asyncContext} is not null the write is
+   * non-blocking and the context is completed once the body has been written or has failed.
+   */
+  static void write(
+      HttpServletResponse res, String contentType, String content, AsyncContext asyncContext)
+      throws IOException {
+    EncodedBody body = acquire();
+    try {
+      body.encode(content);
+      res.setContentType(contentType);
+      res.setCharacterEncoding(StandardCharsets.UTF_8.name());
+      res.setContentLength(body.length());
+      res.setBufferSize(Math.min(body.length(), WRITE_CHUNK_SIZE));
+    } catch (RuntimeException | IOException e) {
+      release(body);
+      throw e;
+    }
+
+    ServletOutputStream output = res.getOutputStream();
+    if (asyncContext == null) {
+      try {
+        output.write(body.bytes.array(), 0, body.length());
+      } finally {
+        release(body);
+      }
+    } else {
+      output.setWriteListener(new ResponseBodyWriter(output, asyncContext, body));
+    }
+  }
+
+  @Override
+  public void onWritePossible() throws IOException {
+    while (output.isReady()) {
+      int remaining = body.length() - offset;
+      if (remaining == 0) {
+        finish();
+        return;
+      }
+      int length = Math.min(remaining, WRITE_CHUNK_SIZE);
+      output.write(body.bytes.array(), offset, length);
+      offset += length;
+    }
+  }
+
+  @Override
+  public void onError(Throwable t) {
+    finish();
+  }
+
+  private void finish() {
+    if (body != null) {
+      release(body);
+      body = null;
+      asyncContext.complete();
+    }
+  }
+
+  private static EncodedBody acquire() {
+    EncodedBody body = POOL.poll();
+    return body == null ? new EncodedBody() : body;
+  }
+
+  private static void release(EncodedBody body) {
+    if (body.bytes.capacity() <= MAX_POOLED_BUFFER_SIZE) {
+      body.bytes.clear();
+      POOL.offer(body);
+    }
+  }
+
+  /**
+   * A reusable UTF-8 encoder paired with the heap buffer it encodes into. Like {@code
+   * String.getBytes}, it replaces unpaired surrogates with {@code '?'} rather than failing.
+   */
+  private static final class EncodedBody {
+    private final CharsetEncoder encoder =
+        StandardCharsets.UTF_8
+            .newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private ByteBuffer bytes = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+
+    void encode(String content) throws IOException {
+      int length = utf8Length(content);
+      if (length > bytes.capacity()) {
+        bytes = ByteBuffer.allocate(length);
+      }
+      bytes.clear();
+      encoder.reset();
+      CoderResult result = encoder.encode(CharBuffer.wrap(content), bytes, true);
+      if (!result.isUnderflow()) {
+        result.throwException();
+      }
+      encoder.flush(bytes);
+    }
+
+    int length() {
+      return bytes.position();
+    }
+
+    /**
+     * Computes the encoded size so the buffer is sized once. It is exact for well-formed content
+     * and an overestimate when unpaired surrogates are replaced.
+     */
+    private static int utf8Length(String content) {
+      int length = content.length();
+      int bytes = length;
+      for (int i = 0; i < length; i++) {
+        char c = content.charAt(i);
+        if (Character.isHighSurrogate(c)) {
+          // A surrogate pair takes two chars and four bytes.
+          i++;
+          bytes += 2;
+        } else if (c >= 0x800) {
+          bytes += 2;
+        } else if (c >= 0x80) {
+          bytes += 1;
+        }
+      }
+      return bytes;
+    }
+  }
+}
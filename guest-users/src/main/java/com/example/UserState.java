@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The state kept for one user. Without a {@link UserStateStore} this is simply {@code userStorage},
+ * which round-trips through the webhook. With one, the state lives in the store and {@code
+ * userStorage} only carries the key it is stored under.
+ *
+ * <p>Intent handlers keep writing to {@code userStorage} directly. With a store, whatever they
+ * wrote is moved into it the next time the state is loaded, so it makes at most one round trip.
+ */
+final class UserState {
+  static final String ID_KEY = "userStateId";
+
+  private static final Gson GSON = new Gson();
+  private static final Type MAP_TYPE = new TypeToken<LinkedHashMap<String, Object>>() {}.getType();
+
+  private final Map<String, Object> userStorage;
+  private final UserStateStore store;
+  private final Map<String, Object> values;
+
+  private UserState(Map<String, Object> userStorage, UserStateStore store,
+      Map<String, Object> values) {
+    this.userStorage = userStorage;
+    this.store = store;
+    this.values = values;
+  }
+
+  /**
+   * Loads the state referenced by {@code userStorage}, first moving any values written to it
+   * directly into the store. Pass the response builder's {@code userStorage}, so it is updated to
+   * carry only the key.
+   *
+   * @param store where state is kept, or null to keep it in {@code userStorage}
+   */
+  static UserState load(Map<String, Object> userStorage, UserStateStore store)
+      throws IOException {
+    if (store == null) {
+      return new UserState(userStorage, null, userStorage);
+    }
+    Object id = userStorage.get(ID_KEY);
+    String json = id instanceof String ? store.get((String) id) : null;
+    Map<String, Object> values = json == null ? null : GSON.fromJson(json, MAP_TYPE);
+    UserState state =
+        new UserState(userStorage, store, values == null ? new LinkedHashMap<>() : values);
+    boolean written = false;
+    for (Map.Entry<String, Object> entry : userStorage.entrySet()) {
+      if (!entry.getKey().equals(ID_KEY)) {
+        state.values.put(entry.getKey(), entry.getValue());
+        written = true;
+      }
+    }
+    if (written) {
+      state.save();
+    }
+    return state;
+  }
+
+  /** The state itself. Changes are kept once {@link #save} is called. */
+  Map<String, Object> values() {
+    return values;
+  }
+
+  /** Keeps the current values, assigning this user a storage key if they do not have one. */
+  void save() throws IOException {
+    if (store == null) {
+      return;
+    }
+    Object id = userStorage.get(ID_KEY);
+    if (!(id instanceof String)) {
+      id = UUID.randomUUID().toString();
+      userStorage.put(ID_KEY, id);
+    }
+    store.put((String) id, GSON.toJson(values));
+    userStorage.keySet().retainAll(Collections.singleton(ID_KEY));
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.Set;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Server-side storage for per-user state, keyed by user id, so that large state does not have to
+ * round-trip through {@code userStorage} on every turn. Implementations must be thread safe.
+ */
+public interface UserStateStore extends Closeable {
+
+  /** Returns the state stored for {@code userId}, or null if there is none. */
+  String get(String userId) throws IOException;
+
+  /** Stores {@code state} for {@code userId}, replacing any previous state. */
+  void put(String userId, String state) throws IOException;
+
+  /** Removes any state stored for {@code userId}. */
+  void remove(String userId) throws IOException;
+
+  /** Returns a snapshot of the ids of every user with stored state. */
+  Set<String> userIds() throws IOException;
+
+  /**
+   * Returns the process-wide store: a {@link DiskUserStateStore} in the directory named by the
+   * {@code actions.userStateDir} system property, or an {@link InMemoryUserStateStore} if it is not
+   * set. The in-memory store is per instance and lost on restart, so a warning is logged when it is
+   * used.
+   */
+  static UserStateStore shared() {
+    return Shared.INSTANCE;
+  }
+
+  /** Holder so the shared store is only opened when first used. */
+  final class Shared {
+    private static final UserStateStore INSTANCE = open();
+
+    private Shared() {
+    }
+
+    private static UserStateStore open() {
+      String directory = System.getProperty("actions.userStateDir");
+      if (directory == null) {
+        LoggerFactory.getLogger(UserStateStore.class).warn(
+            "actions.userStateDir is not set; user state is kept in memory on this instance only"
+                + " and lost when it restarts");
+        return new InMemoryUserStateStore();
+      }
+      try {
+        DiskUserStateStore store = new DiskUserStateStore(Paths.get(directory),
+            Integer.getInteger("actions.userStateCacheSize", DiskUserStateStore.DEFAULT_CACHE_SIZE));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+          try {
+            store.close();
+          } catch (IOException e) {
+            // Nothing more to do while shutting down
+          }
+        }, "user-state-store-shutdown"));
+        return store;
+      } catch (IOException e) {
+        throw new UncheckedIOException("Could not open user state in " + directory, e);
+      }
+    }
+  }
+}
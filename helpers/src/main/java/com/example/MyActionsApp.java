@@ -31,6 +31,19 @@ import com.google.api.services.actions_fulfillment.v2.model.Location;
 
 public class MyActionsApp extends DialogflowApp {
 
+  private static final SsmlTemplate DATE_TIME_SSML = SsmlTemplate.compile(
+      "<speak>"
+          + "Great, we will see you on "
+          + "<say-as interpret-as=\"date\" format=\"dm\">{day:int}-{month:int}</say-as>"
+          + "<say-as interpret-as=\"time\" format=\"hms12\" detail=\"2\">"
+          + "{hours:int}:{minutes}"
+          + "</say-as>"
+          + "</speak>");
+  private static final int DATE_TIME_DAY = DATE_TIME_SSML.slot("day");
+  private static final int DATE_TIME_MONTH = DATE_TIME_SSML.slot("month");
+  private static final int DATE_TIME_HOURS = DATE_TIME_SSML.slot("hours");
+  private static final int DATE_TIME_MINUTES = DATE_TIME_SSML.slot("minutes");
+
   // [START df_java_permission_reason]
   @ForIntent("Permission")
   public ActionResponse getPermission(ActionRequest request) {
@@ -100,21 +113,14 @@ public class MyActionsApp extends DialogflowApp {
     Integer month = dateTimeValue.getDate().getMonth();
     Integer hours = dateTimeValue.getTime().getHours();
     Integer minutes = dateTimeValue.getTime().getMinutes();
+    // Fields that are zero are left out of the request, so any of these may be null
     String minutesStr = (minutes != null) ? String.valueOf(minutes) : "00";
-    responseBuilder.add(
-        "<speak>"
-            + "Great, we will see you on "
-            + "<say-as interpret-as=\"date\" format=\"dm\">"
-            + day
-            + "-"
-            + month
-            + "</say-as>"
-            + "<say-as interpret-as=\"time\" format=\"hms12\" detail=\"2\">"
-            + hours
-            + ":"
-            + minutesStr
-            + "</say-as>"
-            + "</speak>");
+    responseBuilder.add(DATE_TIME_SSML.values()
+        .setInt(DATE_TIME_DAY, (day != null) ? day : 0)
+        .setInt(DATE_TIME_MONTH, (month != null) ? month : 0)
+        .setInt(DATE_TIME_HOURS, (hours != null) ? hours : 0)
+        .setText(DATE_TIME_MINUTES, minutesStr)
+        .render());
     responseBuilder
         .add("Would you like to try another helper?")
         .addSuggestions(new String[] {"Confirmation", "Permission", "Place"});
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+public class SsmlTemplateTest {
+
+  @Test
+  public void rendersTypedSlots() {
+    SsmlTemplate template = SsmlTemplate.compile(
+        "<speak><say-as interpret-as=\"date\" format=\"dm\">{day:int}-{month:int}</say-as>"
+            + " at {place}</speak>");
+    String ssml = template.values()
+        .setInt(template.slot("day"), 14)
+        .setInt(template.slot("month"), 8)
+        .setText(template.slot("place"), "Tom & Jerry's <Diner>")
+        .render();
+
+    assertEquals("<speak><say-as interpret-as=\"date\" format=\"dm\">14-8</say-as>"
+        + " at Tom &amp; Jerry&apos;s &lt;Diner&gt;</speak>", ssml);
+  }
+
+  @Test
+  public void doubledBraceIsLiteral() {
+    SsmlTemplate template = SsmlTemplate.compile("<speak>{{x} {n:int}</speak>");
+    assertEquals("<speak>{x} 3</speak>",
+        template.values().setInt(template.slot("n"), 3).render());
+  }
+
+  @Test
+  public void rejectsMalformedTemplates() {
+    assertThrows(IllegalArgumentException.class,
+        () -> SsmlTemplate.compile("<speak><p>Hi</speak>"));
+    assertThrows(IllegalArgumentException.class,
+        () -> SsmlTemplate.compile("<speak>{name</speak>"));
+    assertThrows(IllegalArgumentException.class,
+        () -> SsmlTemplate.compile("<speak>{n:int} {n}</speak>"));
+  }
+
+  @Test
+  public void requiresEverySlot() {
+    SsmlTemplate template = SsmlTemplate.compile("<speak>{a} {b}</speak>");
+    SsmlTemplate.Values values = template.values().setText(template.slot("a"), "x");
+    assertThrows(IllegalStateException.class, values::render);
+    assertThrows(IllegalArgumentException.class,
+        () -> values.setInt(template.slot("b"), 1));
+  }
+}
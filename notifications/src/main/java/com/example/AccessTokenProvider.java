@@ -0,0 +1,168 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.auth.oauth2.ServiceAccountCredentials;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches an OAuth access token for a set of credentials and refreshes it in the background before
+ * it expires. Concurrent callers share a single in-flight refresh, so a burst of requests starting
+ * with no token results in one token fetch rather than one per request. A failed refresh is
+ * remembered for a short, jittered period, during which callers get the same failure instead of
+ * each starting a new fetch against the token endpoint. A refresh that finds the token already
+ * renewed, for example a scheduled one that a caller got ahead of, does not fetch again.
+ */
+public class AccessTokenProvider {
+  private static final Logger LOGGER = LoggerFactory.getLogger(AccessTokenProvider.class);
+  private static final long REFRESH_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+  private static final long FAILURE_RETRY_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+  private final GoogleCredentials credentials;
+  private final ScheduledExecutorService scheduler;
+  private volatile AccessToken token;
+  private CompletableFuture<AccessToken> refresh;
+  private long retryAtNanos;
+
+  public AccessTokenProvider(GoogleCredentials credentials) {
+    this.credentials = credentials;
+    this.scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "access-token-refresh");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  /** Creates a provider for the service account key file found on the classpath. */
+  public static AccessTokenProvider fromServiceAccountResource(String resourceName, String scope)
+      throws IOException {
+    try (InputStream serviceAccount =
+        AccessTokenProvider.class.getClassLoader().getResourceAsStream(resourceName)) {
+      if (serviceAccount == null) {
+        throw new FileNotFoundException(resourceName + " not found on the classpath");
+      }
+      return new AccessTokenProvider(
+          ServiceAccountCredentials.fromStream(serviceAccount)
+              .createScoped(Collections.singleton(scope)));
+    }
+  }
+
+  /**
+   * Returns a valid access token. Only blocks when there is no unexpired token; a token inside the
+   * refresh margin is returned while a refresh runs in the background.
+   */
+  public String getTokenValue() throws IOException {
+    AccessToken current = token;
+    long now = System.currentTimeMillis();
+    if (current != null) {
+      long expiresAt = expirationMillis(current);
+      if (expiresAt - now > REFRESH_MARGIN_MILLIS) {
+        return current.getTokenValue();
+      }
+      if (expiresAt > now) {
+        refreshAsync();
+        return current.getTokenValue();
+      }
+    }
+    try {
+      return refreshAsync().get().getTokenValue();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while refreshing access token", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Unable to refresh access token", e.getCause());
+    }
+  }
+
+  private synchronized CompletableFuture<AccessToken> refreshAsync() {
+    if (refresh != null
+        && (!refresh.isCompletedExceptionally() || System.nanoTime() - retryAtNanos < 0)) {
+      return refresh;
+    }
+    CompletableFuture<AccessToken> inFlight = new CompletableFuture<>();
+    refresh = inFlight;
+    scheduler.execute(
+        () -> {
+          AccessToken current = token;
+          if (current != null
+              && expirationMillis(current) - System.currentTimeMillis() > REFRESH_MARGIN_MILLIS) {
+            // Another refresh already replaced the token; the refresh it scheduled takes over
+            clearRefresh(inFlight);
+            inFlight.complete(current);
+            return;
+          }
+          try {
+            AccessToken refreshed = credentials.refreshAccessToken();
+            token = refreshed;
+            scheduleRefresh(refreshed);
+            clearRefresh(inFlight);
+            inFlight.complete(refreshed);
+          } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Access token refresh failed", e);
+            holdFailure();
+            inFlight.completeExceptionally(e);
+          }
+        });
+    return inFlight;
+  }
+
+  private synchronized void clearRefresh(CompletableFuture<AccessToken> completed) {
+    if (refresh == completed) {
+      refresh = null;
+    }
+  }
+
+  /**
+   * Keeps the failed refresh as the current one for two to four seconds. The jitter stops
+   * instances that failed together from all retrying at the same moment.
+   */
+  private synchronized void holdFailure() {
+    retryAtNanos =
+        System.nanoTime()
+            + FAILURE_RETRY_NANOS
+            + ThreadLocalRandom.current().nextLong(FAILURE_RETRY_NANOS);
+  }
+
+  private void scheduleRefresh(AccessToken refreshed) {
+    if (refreshed.getExpirationTime() == null) {
+      return;
+    }
+    long delay = expirationMillis(refreshed) - REFRESH_MARGIN_MILLIS - System.currentTimeMillis();
+    scheduler.schedule(this::refreshAsync, Math.max(delay, 0), TimeUnit.MILLISECONDS);
+  }
+
+  private static long expirationMillis(AccessToken accessToken) {
+    return accessToken.getExpirationTime() == null
+        ? Long.MAX_VALUE
+        : accessToken.getExpirationTime().getTime();
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * Shared JSON codec for the notifications sample. {@link Gson} instances are immutable and thread
+ * safe, so one is built at class load and the push notification adapter is looked up once.
+ */
+final class JsonCodec {
+  static final Gson GSON = new Gson();
+
+  static final TypeAdapter<NotificationSender.PushNotification> PUSH_NOTIFICATION_ADAPTER =
+      GSON.getAdapter(NotificationSender.PushNotification.class);
+
+  private JsonCodec() {
+  }
+
+  static <T> String toJson(TypeAdapter<T> adapter, T value) {
+    StringWriter out = new StringWriter();
+    try {
+      // Match the writer settings Gson.toJson uses.
+      JsonWriter writer = GSON.newJsonWriter(out);
+      writer.setLenient(true);
+      writer.setHtmlSafe(GSON.htmlSafe());
+      adapter.write(writer, value);
+      writer.flush();
+    } catch (IOException e) {
+      throw new JsonIOException(e);
+    }
+    return out.toString();
+  }
+}
@@ -25,27 +25,44 @@ import com.google.actions.api.ForIntent;
 import com.google.actions.api.response.ResponseBuilder;
 import com.google.actions.api.response.helperintent.UpdatePermission;
 import com.google.api.services.actions_fulfillment.v2.model.Argument;
+import com.google.api.services.actions_fulfillment.v2.model.User;
+import com.google.gson.JsonObject;
+import java.io.IOException;
 
 public class MyActionsApp extends DialogflowApp {
 
+  private final UserStateStore userStateStore;
+  private final SubscriptionRegistry subscriptionRegistry;
+  private final PromptCatalog<Prompt> prompts;
+
+  public MyActionsApp() {
+    this(UserStateStore.shared(), SubscriptionRegistry.shared(), Prompt.catalog());
+  }
+
+  public MyActionsApp(UserStateStore userStateStore,
+      SubscriptionRegistry subscriptionRegistry, PromptCatalog<Prompt> prompts) {
+    this.userStateStore = userStateStore;
+    this.subscriptionRegistry = subscriptionRegistry;
+    this.prompts = prompts;
+  }
+
   @ForIntent("Default Welcome Intent")
   public ActionResponse welcome(ActionRequest request) {
     ResponseBuilder responseBuilder = getResponseBuilder(request);
+    String locale = localeOf(request);
     if (!request.hasCapability(Capability.SCREEN_OUTPUT.getValue())) {
-      responseBuilder.add("Hi! Welcome to Push Notifications! To learn " +
-          "about push notifications you will need to switch to a screened device.");
+      responseBuilder.add(prompts.text(locale, Prompt.WELCOME_NO_SCREEN));
       responseBuilder.endConversation();
     } else if (!request.getUser().getUserVerificationStatus().equals("VERIFIED")) {
-      responseBuilder.add("Hi! Welcome to Push Notifications! To learn " +
-          "about push notifications you'll need to be a verified user.");
+      responseBuilder.add(prompts.text(locale, Prompt.WELCOME_UNVERIFIED));
       responseBuilder.endConversation();
     } else {
-      responseBuilder.add("Hi! Welcome to Push Notifications!");
+      responseBuilder.add(prompts.text(locale, Prompt.WELCOME));
       // [START suggest_notifications_df]
       responseBuilder
-          .add("I can send you push notifications. Would you like that?")
+          .add(prompts.text(locale, Prompt.SUGGEST_NOTIFICATIONS))
           .addSuggestions(new String[] {
-              "Send notifications"
+              prompts.text(locale, Prompt.SUGGESTION_SEND_NOTIFICATIONS)
           });
       // [END suggest_notifications_df]
     }
@@ -55,7 +72,7 @@ public class MyActionsApp extends DialogflowApp {
   @ForIntent("Notification")
   public ActionResponse notification(ActionRequest request) {
     ResponseBuilder responseBuilder = getResponseBuilder(request);
-    responseBuilder.add("You got a push notification!");
+    responseBuilder.add(prompts.text(localeOf(request), Prompt.NOTIFICATION));
     return responseBuilder.build();
   }
 
@@ -70,20 +87,38 @@ public class MyActionsApp extends DialogflowApp {
 
   // [START confirm_notifications_subscription_df]
   @ForIntent("Confirm Notifications Subscription")
-  public ActionResponse confirmNotificationsSubscription(ActionRequest request) {
+  public ActionResponse confirmNotificationsSubscription(ActionRequest request)
+      throws IOException {
     // Verify the user has subscribed for push notifications
     ResponseBuilder responseBuilder = getResponseBuilder(request);
+    String locale = localeOf(request);
     if (request.isPermissionGranted()) {
       Argument userId = request.getArgument(ConstantsKt.ARG_UPDATES_USER_ID);
       if (userId != null) {
         // Store the user's ID in the database
+        String subscriptionLocale =
+            locale != null ? locale : SubscriptionRegistry.DEFAULT_LOCALE;
+        long subscribedAt = System.currentTimeMillis();
+        JsonObject subscription = new JsonObject();
+        subscription.addProperty("intent", "Notification");
+        subscription.addProperty("locale", subscriptionLocale);
+        subscription.addProperty("subscribedAt", subscribedAt);
+        userStateStore.put(userId.getTextValue(), JsonCodec.GSON.toJson(subscription));
+        // and index it so notifications can be fanned out to every subscriber
+        subscriptionRegistry.subscribe(
+            userId.getTextValue(), "Notification", subscriptionLocale, subscribedAt);
       }
-      responseBuilder.add("Ok, I'll start alerting you.");
+      responseBuilder.add(prompts.text(locale, Prompt.SUBSCRIBED));
     } else {
-      responseBuilder.add("Ok, I won't alert you.");
+      responseBuilder.add(prompts.text(locale, Prompt.NOT_SUBSCRIBED));
     }
     responseBuilder.endConversation();
     return responseBuilder.build();
   }
   // [END confirm_notifications_subscription_df]
+
+  private static String localeOf(ActionRequest request) {
+    User user = request.getUser();
+    return user == null ? null : user.getLocale();
+  }
 }
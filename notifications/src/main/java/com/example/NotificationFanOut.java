@@ -0,0 +1,229 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends one notification to many recipients through a {@link NotificationSender}. Sends run
+ * concurrently with at most {@code maxInFlight} outstanding at once, are started no faster than
+ * {@code maxSendsPerSecond}, and the outcome for every recipient is reported to a listener.
+ * Recipients are pulled from the source lazily, so very large streams are never held in memory.
+ */
+public class NotificationFanOut {
+  private static final Logger LOGGER = LoggerFactory.getLogger(NotificationFanOut.class);
+
+  /** A user to notify and the intent and locale to notify them with. */
+  public static final class Recipient {
+    private final String userId;
+    private final String intent;
+    private final String locale;
+
+    public Recipient(String userId, String intent, String locale) {
+      this.userId = userId;
+      this.intent = intent;
+      this.locale = locale;
+    }
+
+    public String getUserId() {
+      return userId;
+    }
+
+    public String getIntent() {
+      return intent;
+    }
+
+    public String getLocale() {
+      return locale;
+    }
+  }
+
+  /** The result of sending to a single recipient. */
+  public static final class Outcome {
+    private final Recipient recipient;
+    private final int statusCode;
+    private final Throwable error;
+
+    Outcome(Recipient recipient, int statusCode, Throwable error) {
+      this.recipient = recipient;
+      this.statusCode = statusCode;
+      this.error = error;
+    }
+
+    public Recipient getRecipient() {
+      return recipient;
+    }
+
+    /** Returns the HTTP status of the send, or -1 if it failed before a response arrived. */
+    public int getStatusCode() {
+      return statusCode;
+    }
+
+    public Throwable getError() {
+      return error;
+    }
+
+    public boolean isSuccess() {
+      return error == null && statusCode >= 200 && statusCode < 300;
+    }
+  }
+
+  /** Totals for a completed fan-out. */
+  public static final class Summary {
+    private final long sent;
+    private final long failed;
+
+    Summary(long sent, long failed) {
+      this.sent = sent;
+      this.failed = failed;
+    }
+
+    public long getSent() {
+      return sent;
+    }
+
+    public long getFailed() {
+      return failed;
+    }
+  }
+
+  private final NotificationSender sender;
+  private final int maxInFlight;
+  private final double maxSendsPerSecond;
+
+  public NotificationFanOut(NotificationSender sender, int maxInFlight, double maxSendsPerSecond) {
+    if (maxInFlight <= 0 || maxSendsPerSecond <= 0) {
+      throw new IllegalArgumentException("maxInFlight and maxSendsPerSecond must be positive");
+    }
+    this.sender = sender;
+    this.maxInFlight = maxInFlight;
+    this.maxSendsPerSecond = maxSendsPerSecond;
+  }
+
+  /**
+   * Sends {@code title} to every recipient in {@code recipients} and blocks until all sends have
+   * finished.
+   *
+   * @param onOutcome called once per recipient, from the sending threads
+   */
+  public Summary sendAll(String title, Stream<Recipient> recipients, Consumer<Outcome> onOutcome)
+      throws InterruptedException {
+    return sendAll(locale -> title, recipients, onOutcome);
+  }
+
+  /**
+   * Like {@link #sendAll(String, Stream, Consumer)}, but with the title for each recipient chosen
+   * by their locale, for example with {@code locale -> prompts.text(locale, key)}. If {@code
+   * titleForLocale} throws, that recipient is reported as failed with the exception as its error.
+   */
+  public Summary sendAll(Function<String, String> titleForLocale, Stream<Recipient> recipients,
+      Consumer<Outcome> onOutcome) throws InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(maxInFlight, new SenderThreadFactory());
+    Semaphore window = new Semaphore(maxInFlight);
+    RateLimiter rateLimiter = new RateLimiter(maxSendsPerSecond);
+    AtomicLong sent = new AtomicLong();
+    AtomicLong failed = new AtomicLong();
+    try {
+      Iterator<Recipient> iterator = recipients.iterator();
+      while (iterator.hasNext()) {
+        Recipient recipient = iterator.next();
+        window.acquire();
+        rateLimiter.acquire();
+        executor.execute(
+            () -> {
+              try {
+                Outcome outcome = send(titleForLocale, recipient);
+                (outcome.isSuccess() ? sent : failed).incrementAndGet();
+                report(onOutcome, outcome);
+              } finally {
+                window.release();
+              }
+            });
+      }
+      // Wait for the last sends in the window to finish.
+      window.acquire(maxInFlight);
+    } finally {
+      executor.shutdownNow();
+      recipients.close();
+    }
+    return new Summary(sent.get(), failed.get());
+  }
+
+  private Outcome send(Function<String, String> titleForLocale, Recipient recipient) {
+    try {
+      // A title that cannot be built fails this recipient like a send that cannot be made
+      String title = titleForLocale.apply(recipient.getLocale());
+      PooledHttpClient.Response response =
+          sender.sendNotification(
+              title, recipient.getUserId(), recipient.getIntent(), recipient.getLocale());
+      return new Outcome(recipient, response.getStatusCode(), null);
+    } catch (IOException | RuntimeException e) {
+      return new Outcome(recipient, -1, e);
+    }
+  }
+
+  private static void report(Consumer<Outcome> onOutcome, Outcome outcome) {
+    try {
+      onOutcome.accept(outcome);
+    } catch (RuntimeException e) {
+      LOGGER.warn("Outcome listener failed for " + outcome.getRecipient().getUserId(), e);
+    }
+  }
+
+  /** Spaces out permits evenly so sends start at no more than a fixed rate. */
+  private static final class RateLimiter {
+    private final long intervalNanos;
+    private long nextPermitNanos = System.nanoTime();
+
+    RateLimiter(double permitsPerSecond) {
+      this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+    }
+
+    void acquire() throws InterruptedException {
+      long now = System.nanoTime();
+      long wait = nextPermitNanos - now;
+      nextPermitNanos = Math.max(nextPermitNanos, now) + intervalNanos;
+      if (wait > 0) {
+        TimeUnit.NANOSECONDS.sleep(wait);
+      }
+    }
+  }
+
+  private static final class SenderThreadFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "notification-sender-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
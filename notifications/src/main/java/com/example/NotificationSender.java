@@ -1,20 +1,35 @@
 package com.example;
 
 import com.google.api.client.repackaged.com.google.common.base.Preconditions;
-import com.google.auth.oauth2.AccessToken;
-import com.google.auth.oauth2.ServiceAccountCredentials;
-import com.google.gson.Gson;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.Collections;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.HttpClientBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class NotificationSender {
+  private static final Logger LOGGER = LoggerFactory.getLogger(NotificationSender.class);
+  private static final String SERVICE_ACCOUNT_KEY_FILE_NAME = "service-account.json";
+  private static final String CONVERSATION_SCOPE =
+      "https://www.googleapis.com/auth/actions.fulfillment.conversation";
+
+  private final AccessTokenProvider accessTokenProvider;
+  private final ResilientHttpClient httpClient;
+
+  public NotificationSender() throws IOException {
+    this(
+        AccessTokenProvider.fromServiceAccountResource(
+            SERVICE_ACCOUNT_KEY_FILE_NAME, CONVERSATION_SCOPE),
+        new ResilientHttpClient(PooledHttpClient.shared()));
+  }
+
+  public NotificationSender(
+      AccessTokenProvider accessTokenProvider, ResilientHttpClient httpClient) {
+    this.accessTokenProvider = accessTokenProvider;
+    this.httpClient = httpClient;
+  }
+
   // [START send_notification_df]
   final class Notification {
 
@@ -100,24 +115,12 @@ public class NotificationSender {
     return new PushNotification(message, isInSandbox);
   }
 
-  private ServiceAccountCredentials loadCredentials() throws IOException {
-    String actionsApiServiceAccountFile =
-        this.getClass().getClassLoader().getResource("service-account.json").getFile();
-    InputStream actionsApiServiceAccount = new FileInputStream(actionsApiServiceAccountFile);
-    ServiceAccountCredentials serviceAccountCredentials =
-        ServiceAccountCredentials.fromStream(actionsApiServiceAccount);
-    return (ServiceAccountCredentials)
-        serviceAccountCredentials.createScoped(
-            Collections.singleton(
-                "https://www.googleapis.com/auth/actions.fulfillment.conversation"));
-  }
-
   private String getAccessToken() throws IOException {
-    AccessToken token = loadCredentials().refreshAccessToken();
-    return token.getTokenValue();
+    return accessTokenProvider.getTokenValue();
   }
 
-  public void sendNotification(String title, String userId, String intent, String locale) throws IOException {
+  public PooledHttpClient.Response sendNotification(
+      String title, String userId, String intent, String locale) throws IOException {
     Preconditions.checkNotNull(title, "title cannot be null.");
     Preconditions.checkNotNull(userId, "userId cannot be null.");
     Preconditions.checkNotNull(intent, "intent cannot be null.");
@@ -131,11 +134,11 @@ public class NotificationSender {
     request.setHeader("Content-type", "application/json");
     request.setHeader("Authorization", "Bearer " + token);
 
-    StringEntity entity = new StringEntity(new Gson().toJson(notification));
-    entity.setContentType(ContentType.APPLICATION_JSON.getMimeType());
-    request.setEntity(entity);
-    HttpClient httpClient = HttpClientBuilder.create().build();
-    httpClient.execute(request);
+    String json = JsonCodec.toJson(JsonCodec.PUSH_NOTIFICATION_ADAPTER, notification);
+    request.setEntity(new StringEntity(json, ContentType.APPLICATION_JSON));
+    PooledHttpClient.Response response = httpClient.execute(request);
+    LOGGER.debug(response.getStatusCode() + " " + response.getReasonPhrase());
+    return response;
   }
   // [END send_notification_df]
 
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.Header;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Connection-pooled HTTP client for calls to the Actions API. Connections are kept alive and
+ * reused across calls, idle ones are evicted in the background, and every response entity is
+ * consumed so its connection goes back to the pool.
+ */
+public class PooledHttpClient implements Closeable {
+  private static final PooledHttpClient SHARED =
+      new PooledHttpClient(
+          Integer.getInteger("actions.http.maxTotal", 200),
+          Integer.getInteger("actions.http.maxPerRoute", 100),
+          Integer.getInteger("actions.http.connectTimeoutMillis", 5000),
+          Integer.getInteger("actions.http.socketTimeoutMillis", 10000),
+          Long.getLong("actions.http.idleTimeoutMillis", 30000L));
+
+  /** Status line and headers of a response whose entity has already been consumed. */
+  public static final class Response {
+    private final int statusCode;
+    private final String reasonPhrase;
+    private final Header[] headers;
+
+    Response(int statusCode, String reasonPhrase, Header[] headers) {
+      this.statusCode = statusCode;
+      this.reasonPhrase = reasonPhrase;
+      this.headers = headers;
+    }
+
+    public int getStatusCode() {
+      return statusCode;
+    }
+
+    public String getReasonPhrase() {
+      return reasonPhrase;
+    }
+
+    /** Returns the value of the first header named {@code name}, or null. */
+    public String getHeader(String name) {
+      for (Header header : headers) {
+        if (header.getName().equalsIgnoreCase(name)) {
+          return header.getValue();
+        }
+      }
+      return null;
+    }
+  }
+
+  private final CloseableHttpClient httpClient;
+
+  public PooledHttpClient(
+      int maxTotal,
+      int maxPerRoute,
+      int connectTimeoutMillis,
+      int socketTimeoutMillis,
+      long idleTimeoutMillis) {
+    PoolingHttpClientConnectionManager connectionManager =
+        new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(maxTotal);
+    connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+    RequestConfig requestConfig =
+        RequestConfig.custom()
+            .setConnectTimeout(connectTimeoutMillis)
+            .setConnectionRequestTimeout(connectTimeoutMillis)
+            .setSocketTimeout(socketTimeoutMillis)
+            .build();
+    this.httpClient =
+        HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .evictExpiredConnections()
+            .evictIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS)
+            .build();
+  }
+
+  /**
+   * Returns the process-wide client. Pool sizes and timeouts can be tuned with the {@code
+   * actions.http.*} system properties.
+   */
+  public static PooledHttpClient shared() {
+    return SHARED;
+  }
+
+  /** Executes {@code request} and consumes the response entity. */
+  public Response execute(HttpUriRequest request) throws IOException {
+    try (CloseableHttpResponse response = httpClient.execute(request)) {
+      EntityUtils.consume(response.getEntity());
+      return new Response(
+          response.getStatusLine().getStatusCode(),
+          response.getStatusLine().getReasonPhrase(),
+          response.getAllHeaders());
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    httpClient.close();
+  }
+}
@@ -0,0 +1,443 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory index of who has subscribed to which push notification, for fanning notifications out
+ * with {@link NotificationFanOut}.
+ *
+ * <p>Subscriptions are spread over shards by a hash of the user id, each with its own read/write
+ * lock, so concurrent subscribes rarely contend. To keep tens of millions of subscriptions small,
+ * a shard stores them in parallel primitive arrays instead of one object per subscription: the
+ * user id as UTF-8 bytes, an int code for the (intent, locale) pair and the subscription time in
+ * seconds, found through an open-addressed table of entry indexes. Entries with the same intent
+ * and locale are threaded onto an intrusive doubly linked list, so iterating one audience only
+ * visits its own members.
+ *
+ * <p>The registry itself is not persisted. Subscriptions are saved in a {@link UserStateStore} as
+ * {@code {"intent":...,"locale":...,"subscribedAt":...}} and {@link #load} rebuilds the registry
+ * from them on startup.
+ */
+public class SubscriptionRegistry {
+  /** Locale that subscriptions from users whose locale is unknown are filed under. */
+  public static final String DEFAULT_LOCALE = "en-US";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SubscriptionRegistry.class);
+  private static final int DEFAULT_SHARDS = 64;
+
+  /** A user's subscription to notifications for one intent. */
+  public static final class Subscription {
+    private final String userId;
+    private final String intent;
+    private final String locale;
+    private final long subscribedAtMillis;
+
+    Subscription(String userId, String intent, String locale, long subscribedAtMillis) {
+      this.userId = userId;
+      this.intent = intent;
+      this.locale = locale;
+      this.subscribedAtMillis = subscribedAtMillis;
+    }
+
+    public String getUserId() {
+      return userId;
+    }
+
+    public String getIntent() {
+      return intent;
+    }
+
+    public String getLocale() {
+      return locale;
+    }
+
+    public long getSubscribedAtMillis() {
+      return subscribedAtMillis;
+    }
+
+    public NotificationFanOut.Recipient toRecipient() {
+      return new NotificationFanOut.Recipient(userId, intent, locale);
+    }
+  }
+
+  private final Shard[] shards;
+  private final int shardShift;
+  private final ConcurrentMap<String, Integer> topicCodes = new ConcurrentHashMap<>();
+  private final Object topicLock = new Object();
+  private volatile String[][] topics = new String[0][];
+
+  /** @param shardCount number of shards, rounded up to a power of two */
+  public SubscriptionRegistry(int shardCount) {
+    int shardBits = 32 - Integer.numberOfLeadingZeros(Math.max(1, shardCount) - 1);
+    this.shards = new Shard[1 << shardBits];
+    this.shardShift = 32 - shardBits;
+    for (int i = 0; i < shards.length; i++) {
+      shards[i] = new Shard();
+    }
+  }
+
+  /** Returns the process-wide registry, loaded from {@link UserStateStore#shared} on first use. */
+  public static SubscriptionRegistry shared() {
+    return Shared.INSTANCE;
+  }
+
+  /** Holder so the shared registry is only loaded when first used. */
+  private static final class Shared {
+    private static final SubscriptionRegistry INSTANCE = open();
+
+    private static SubscriptionRegistry open() {
+      int shards = Integer.getInteger("actions.subscriptionShards", DEFAULT_SHARDS);
+      SubscriptionRegistry registry = new SubscriptionRegistry(shards);
+      try {
+        registry.load(UserStateStore.shared());
+      } catch (IOException e) {
+        LOGGER.error("Could not load subscriptions; notifications reach new subscribers only", e);
+      }
+      return registry;
+    }
+  }
+
+  /**
+   * Subscribes every user with a subscription saved in {@code store}. Entries that are not
+   * subscriptions are skipped.
+   *
+   * @return the number of subscriptions loaded
+   */
+  public int load(UserStateStore store) throws IOException {
+    int loaded = 0;
+    for (String userId : store.userIds()) {
+      String state = store.get(userId);
+      if (state == null) {
+        continue;
+      }
+      try {
+        JsonObject subscription = JsonCodec.GSON.fromJson(state, JsonObject.class);
+        if (subscription == null || !subscription.has("intent")) {
+          continue;
+        }
+        subscribe(userId,
+            subscription.get("intent").getAsString(),
+            subscription.has("locale") && !subscription.get("locale").isJsonNull()
+                ? subscription.get("locale").getAsString()
+                : null,
+            subscription.has("subscribedAt") ? subscription.get("subscribedAt").getAsLong() : 0L);
+        loaded++;
+      } catch (JsonParseException | IllegalStateException | UnsupportedOperationException e) {
+        LOGGER.warn("Skipping unreadable subscription of {}", userId, e);
+      }
+    }
+    LOGGER.info("Loaded {} subscriptions", loaded);
+    return loaded;
+  }
+
+  /**
+   * Records that {@code userId} wants notifications for {@code intent} in {@code locale}, or in
+   * {@link #DEFAULT_LOCALE} if it is null, replacing any earlier subscription of theirs.
+   *
+   * @return true if the user was not subscribed before
+   */
+  public boolean subscribe(String userId, String intent, String locale, long subscribedAtMillis) {
+    int hash = hash(userId);
+    return shard(hash).subscribe(userId.getBytes(StandardCharsets.UTF_8), hash,
+        topicCode(Objects.requireNonNull(intent), locale == null ? DEFAULT_LOCALE : locale),
+        (int) TimeUnit.MILLISECONDS.toSeconds(subscribedAtMillis));
+  }
+
+  /** @return true if {@code userId} was subscribed */
+  public boolean unsubscribe(String userId) {
+    int hash = hash(userId);
+    return shard(hash).unsubscribe(userId.getBytes(StandardCharsets.UTF_8), hash);
+  }
+
+  /** Returns the subscription of {@code userId}, or null if they have none. */
+  public Subscription get(String userId) {
+    int hash = hash(userId);
+    return shard(hash).get(userId.getBytes(StandardCharsets.UTF_8), hash);
+  }
+
+  public int size() {
+    int size = 0;
+    for (Shard shard : shards) {
+      size += shard.size();
+    }
+    return size;
+  }
+
+  /**
+   * Returns everyone subscribed to {@code intent}, in {@code locale} or in any locale if it is
+   * null. Each shard is copied under its read lock when the stream reaches it, so subscriptions
+   * changed during iteration may or may not be included.
+   */
+  public Stream<Subscription> subscriptions(String intent, String locale) {
+    String[][] topics = this.topics;
+    int[] codes = new int[topics.length];
+    int count = 0;
+    for (int code = 0; code < topics.length; code++) {
+      if (topics[code][0].equals(intent) && (locale == null || topics[code][1].equals(locale))) {
+        codes[count++] = code;
+      }
+    }
+    int[] matching = Arrays.copyOf(codes, count);
+    return Arrays.stream(shards).flatMap(shard -> shard.snapshot(matching).stream());
+  }
+
+  private Shard shard(int hash) {
+    return shards[shardShift == 32 ? 0 : hash >>> shardShift];
+  }
+
+  private static int hash(String userId) {
+    int h = userId.hashCode() * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private int topicCode(String intent, String locale) {
+    String key = intent + '\n' + locale;
+    Integer code = topicCodes.get(key);
+    if (code != null) {
+      return code;
+    }
+    synchronized (topicLock) {
+      code = topicCodes.get(key);
+      if (code == null) {
+        String[][] grown = Arrays.copyOf(topics, topics.length + 1);
+        grown[topics.length] = new String[] {intent, locale};
+        code = topics.length;
+        // Publish the topic before its code so readers never see a code they cannot resolve
+        topics = grown;
+        topicCodes.put(key, code);
+      }
+      return code;
+    }
+  }
+
+  /** One shard. Every field is guarded by {@link #lock}. */
+  private final class Shard {
+    private static final int EMPTY = 0;
+    private static final int DELETED = -1;
+    private static final int NONE = -1;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Entries, addressed by index.
+    private byte[][] ids = new byte[16][];
+    private int[] hashes = new int[16];
+    private int[] topicOf = new int[16];
+    private int[] subscribedAt = new int[16];
+    private int[] next = new int[16];
+    private int[] prev = new int[16];
+    private int entries;
+    private int freeEntry = NONE;
+    private int size;
+
+    // Table slots hold entry index + 1, EMPTY or DELETED.
+    private int[] table = new int[32];
+    private int deleted;
+
+    // First entry of each topic's list, by topic code.
+    private int[] topicHead = new int[0];
+
+    boolean subscribe(byte[] id, int hash, int topic, int seconds) {
+      lock.writeLock().lock();
+      try {
+        int slot = find(id, hash);
+        if (slot >= 0) {
+          int entry = table[slot] - 1;
+          if (topicOf[entry] != topic) {
+            unlink(entry);
+            link(entry, topic);
+          }
+          subscribedAt[entry] = seconds;
+          return false;
+        }
+        int entry = allocate();
+        ids[entry] = id;
+        hashes[entry] = hash;
+        subscribedAt[entry] = seconds;
+        link(entry, topic);
+        insert(entry, hash);
+        size++;
+        if ((size + deleted) * 4 > table.length * 3) {
+          rehash(Math.max(table.length, Integer.highestOneBit(size) * 4));
+        }
+        return true;
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+
+    boolean unsubscribe(byte[] id, int hash) {
+      lock.writeLock().lock();
+      try {
+        int slot = find(id, hash);
+        if (slot < 0) {
+          return false;
+        }
+        int entry = table[slot] - 1;
+        table[slot] = DELETED;
+        deleted++;
+        unlink(entry);
+        ids[entry] = null;
+        topicOf[entry] = NONE;
+        next[entry] = freeEntry;
+        freeEntry = entry;
+        size--;
+        return true;
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+
+    Subscription get(byte[] id, int hash) {
+      lock.readLock().lock();
+      try {
+        int slot = find(id, hash);
+        return slot < 0 ? null : subscription(table[slot] - 1);
+      } finally {
+        lock.readLock().unlock();
+      }
+    }
+
+    int size() {
+      lock.readLock().lock();
+      try {
+        return size;
+      } finally {
+        lock.readLock().unlock();
+      }
+    }
+
+    List<Subscription> snapshot(int[] topics) {
+      lock.readLock().lock();
+      try {
+        List<Subscription> subscriptions = new ArrayList<>();
+        for (int topic : topics) {
+          if (topic < topicHead.length) {
+            for (int entry = topicHead[topic]; entry != NONE; entry = next[entry]) {
+              subscriptions.add(subscription(entry));
+            }
+          }
+        }
+        return subscriptions;
+      } finally {
+        lock.readLock().unlock();
+      }
+    }
+
+    private Subscription subscription(int entry) {
+      String[] topic = topics[topicOf[entry]];
+      return new Subscription(new String(ids[entry], StandardCharsets.UTF_8), topic[0], topic[1],
+          TimeUnit.SECONDS.toMillis(Integer.toUnsignedLong(subscribedAt[entry])));
+    }
+
+    /** Returns the table slot holding {@code id}, or -1. */
+    private int find(byte[] id, int hash) {
+      int mask = table.length - 1;
+      for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+        int value = table[slot];
+        if (value == EMPTY) {
+          return -1;
+        }
+        if (value != DELETED && hashes[value - 1] == hash && Arrays.equals(ids[value - 1], id)) {
+          return slot;
+        }
+      }
+    }
+
+    private void insert(int entry, int hash) {
+      int mask = table.length - 1;
+      int slot = hash & mask;
+      while (table[slot] != EMPTY && table[slot] != DELETED) {
+        slot = (slot + 1) & mask;
+      }
+      if (table[slot] == DELETED) {
+        deleted--;
+      }
+      table[slot] = entry + 1;
+    }
+
+    private void rehash(int capacity) {
+      int[] old = table;
+      table = new int[capacity];
+      deleted = 0;
+      for (int value : old) {
+        if (value != EMPTY && value != DELETED) {
+          insert(value - 1, hashes[value - 1]);
+        }
+      }
+    }
+
+    private int allocate() {
+      if (freeEntry != NONE) {
+        int entry = freeEntry;
+        freeEntry = next[entry];
+        return entry;
+      }
+      if (entries == ids.length) {
+        int capacity = entries * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        topicOf = Arrays.copyOf(topicOf, capacity);
+        subscribedAt = Arrays.copyOf(subscribedAt, capacity);
+        next = Arrays.copyOf(next, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+      }
+      return entries++;
+    }
+
+    private void link(int entry, int topic) {
+      if (topic >= topicHead.length) {
+        int oldLength = topicHead.length;
+        topicHead = Arrays.copyOf(topicHead, Math.max(topic + 1, oldLength * 2));
+        Arrays.fill(topicHead, oldLength, topicHead.length, NONE);
+      }
+      topicOf[entry] = topic;
+      prev[entry] = NONE;
+      next[entry] = topicHead[topic];
+      if (topicHead[topic] != NONE) {
+        prev[topicHead[topic]] = entry;
+      }
+      topicHead[topic] = entry;
+    }
+
+    private void unlink(int entry) {
+      if (prev[entry] != NONE) {
+        next[prev[entry]] = next[entry];
+      } else {
+        topicHead[topicOf[entry]] = next[entry];
+      }
+      if (next[entry] != NONE) {
+        prev[next[entry]] = prev[entry];
+      }
+    }
+  }
+}
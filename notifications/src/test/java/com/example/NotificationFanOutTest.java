@@ -0,0 +1,137 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.apache.http.Header;
+import org.junit.jupiter.api.Test;
+
+public class NotificationFanOutTest {
+
+  /** Records each send and answers with the status chosen for its user. */
+  private static class FakeSender extends NotificationSender {
+    final List<Long> startNanos = new CopyOnWriteArrayList<>();
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicInteger maxInFlight = new AtomicInteger();
+    private final long sendMillis;
+
+    FakeSender(long sendMillis) {
+      super(null, null);
+      this.sendMillis = sendMillis;
+    }
+
+    @Override
+    public PooledHttpClient.Response sendNotification(
+        String title, String userId, String intent, String locale) throws IOException {
+      startNanos.add(System.nanoTime());
+      maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+      try {
+        TimeUnit.MILLISECONDS.sleep(sendMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        inFlight.decrementAndGet();
+      }
+      if (userId.equals("unreachable")) {
+        throw new IOException("connection reset");
+      }
+      return new PooledHttpClient.Response(
+          userId.equals("rejected") ? 500 : 200, "", new Header[0]);
+    }
+  }
+
+  private static Stream<NotificationFanOut.Recipient> recipients(int count) {
+    return IntStream.range(0, count)
+        .mapToObj(i -> new NotificationFanOut.Recipient("user-" + i, "Notification", "en-US"));
+  }
+
+  @Test
+  public void sendsStayWithinTheWindow() throws InterruptedException {
+    FakeSender sender = new FakeSender(20);
+    NotificationFanOut fanOut = new NotificationFanOut(sender, 3, 10000);
+    AtomicInteger outcomes = new AtomicInteger();
+
+    NotificationFanOut.Summary summary =
+        fanOut.sendAll("Title", recipients(30), outcome -> outcomes.incrementAndGet());
+
+    assertEquals(30, summary.getSent());
+    assertEquals(0, summary.getFailed());
+    assertEquals(30, outcomes.get());
+    assertTrue(sender.maxInFlight.get() <= 3, "max in flight " + sender.maxInFlight.get());
+  }
+
+  @Test
+  public void sendsStartNoFasterThanTheRate() throws InterruptedException {
+    FakeSender sender = new FakeSender(0);
+    NotificationFanOut fanOut = new NotificationFanOut(sender, 10, 50);
+
+    fanOut.sendAll("Title", recipients(11), outcome -> { });
+
+    // The first send starts at once and each of the other ten waits 20ms
+    List<Long> starts = sender.startNanos;
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(
+        Collections.max(starts) - Collections.min(starts));
+    assertEquals(11, starts.size());
+    assertTrue(elapsedMillis >= 180, "elapsed " + elapsedMillis + "ms");
+  }
+
+  @Test
+  public void failuresAreReportedPerRecipient() throws InterruptedException {
+    FakeSender sender = new FakeSender(0);
+    NotificationFanOut fanOut = new NotificationFanOut(sender, 2, 10000);
+    Map<String, NotificationFanOut.Outcome> outcomes = new ConcurrentHashMap<>();
+
+    NotificationFanOut.Summary summary = fanOut.sendAll(
+        locale -> {
+          if (locale.equals("xx-XX")) {
+            throw new IllegalStateException("no prompts for " + locale);
+          }
+          return "Title";
+        },
+        Stream.of(
+            new NotificationFanOut.Recipient("delivered", "Notification", "en-US"),
+            new NotificationFanOut.Recipient("untitled", "Notification", "xx-XX"),
+            new NotificationFanOut.Recipient("unreachable", "Notification", "en-US"),
+            new NotificationFanOut.Recipient("rejected", "Notification", "en-US")),
+        outcome -> outcomes.put(outcome.getRecipient().getUserId(), outcome));
+
+    assertEquals(1, summary.getSent());
+    assertEquals(3, summary.getFailed());
+    assertEquals(4, outcomes.size());
+    assertTrue(outcomes.get("delivered").isSuccess());
+    assertEquals(-1, outcomes.get("untitled").getStatusCode());
+    assertTrue(outcomes.get("untitled").getError() instanceof IllegalStateException);
+    assertTrue(outcomes.get("unreachable").getError() instanceof IOException);
+    assertFalse(outcomes.get("rejected").isSuccess());
+    assertEquals(500, outcomes.get("rejected").getStatusCode());
+    // Only the recipients with a title reached the sender
+    assertEquals(3, sender.startNanos.size());
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PromptCatalogTest {
+
+  private enum TestPrompt {
+    GREETING,
+    FAREWELL
+  }
+
+  // Written to a temporary directory: every entry of src/test/resources is read as an intent
+  // fixture by MyActionsAppTest
+  @TempDir
+  Path promptsDir;
+
+  private ClassLoader classLoader;
+  private PromptCatalog<TestPrompt> prompts;
+
+  @BeforeEach
+  public void writePrompts() throws IOException {
+    write("test_prompts", "GREETING=Hello!\nFAREWELL=Goodbye, {0}. See you {1}.\n");
+    write("test_prompts_fr", "GREETING=Bonjour !\nFAREWELL=Au revoir, {0}. \u00c0 {1}.\n");
+    write("test_prompts_fr_CA", "GREETING=All\u00f4 !\n");
+    write("bad_prompts", "GREETING=Hello!\nUNKNOWN=Not a prompt\n");
+    classLoader = new URLClassLoader(new URL[] {promptsDir.toUri().toURL()}, null);
+    prompts = PromptCatalog.load(TestPrompt.class, "test_prompts", classLoader);
+  }
+
+  private void write(String name, String properties) throws IOException {
+    Files.write(promptsDir.resolve(name + ".properties"),
+        properties.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void fallsBackThroughCountryAndLanguage() {
+    assertEquals("All\u00f4 !", prompts.text("fr-CA", TestPrompt.GREETING));
+    assertEquals("Au revoir, Marie. \u00c0 demain.",
+        prompts.get("fr-CA", TestPrompt.FAREWELL).format("Marie", "demain"));
+    assertEquals("Bonjour !", prompts.text("fr_FR", TestPrompt.GREETING));
+    assertEquals("Hello!", prompts.text("en-US", TestPrompt.GREETING));
+    assertEquals("Hello!", prompts.text(null, TestPrompt.GREETING));
+    assertEquals("Goodbye, Sam. See you soon.",
+        prompts.get("de-DE", TestPrompt.FAREWELL).format("Sam", "soon"));
+  }
+
+  @Test
+  public void sharesPromptsAcrossLocales() {
+    assertSame(prompts.get("fr", TestPrompt.FAREWELL), prompts.get("fr-CA", TestPrompt.FAREWELL));
+    assertSame(prompts.text("en-GB", TestPrompt.GREETING),
+        prompts.text("en-US", TestPrompt.GREETING));
+  }
+
+  @Test
+  public void rejectsMisuse() {
+    assertThrows(IllegalStateException.class,
+        () -> prompts.text("en-US", TestPrompt.FAREWELL));
+    assertThrows(IllegalArgumentException.class,
+        () -> prompts.get("en-US", TestPrompt.FAREWELL).format("Sam"));
+    assertThrows(IllegalStateException.class,
+        () -> PromptCatalog.load(TestPrompt.class, "bad_prompts", classLoader));
+    assertThrows(IllegalStateException.class,
+        () -> PromptCatalog.load(TestPrompt.class, "missing_prompts", classLoader));
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+public class SubscriptionRegistryTest {
+
+  private static final String[] INTENTS = {"Notification", "Daily Update"};
+  private static final String[] LOCALES = {"en-US", "en-GB", "fr-FR"};
+
+  @Test
+  public void matchesAMapUnderChurn() {
+    SubscriptionRegistry registry = new SubscriptionRegistry(4);
+    Map<String, String[]> expected = new HashMap<>();
+    Random random = new Random(42);
+    for (int i = 0; i < 200000; i++) {
+      String userId = "user-" + random.nextInt(5000);
+      if (random.nextInt(4) == 0) {
+        assertEquals(expected.remove(userId) != null, registry.unsubscribe(userId));
+      } else {
+        String intent = INTENTS[random.nextInt(INTENTS.length)];
+        String locale = LOCALES[random.nextInt(LOCALES.length)];
+        assertEquals(expected.put(userId, new String[] {intent, locale}) == null,
+            registry.subscribe(userId, intent, locale, 1569348000000L));
+      }
+    }
+
+    assertEquals(expected.size(), registry.size());
+    for (String intent : INTENTS) {
+      for (String locale : LOCALES) {
+        Set<String> want = expected.entrySet().stream()
+            .filter(e -> e.getValue()[0].equals(intent) && e.getValue()[1].equals(locale))
+            .map(Map.Entry::getKey)
+            .collect(Collectors.toSet());
+        List<String> got = registry.subscriptions(intent, locale)
+            .map(SubscriptionRegistry.Subscription::getUserId)
+            .collect(Collectors.toList());
+        assertEquals(want.size(), got.size());
+        assertEquals(want, got.stream().collect(Collectors.toSet()));
+      }
+      long inAnyLocale = expected.values().stream().filter(v -> v[0].equals(intent)).count();
+      assertEquals(inAnyLocale, registry.subscriptions(intent, null).count());
+    }
+  }
+
+  @Test
+  public void resubscribingMovesTheUser() {
+    SubscriptionRegistry registry = new SubscriptionRegistry(1);
+    assertTrue(registry.subscribe("alice", "Notification", "en-US", 1000L));
+    assertFalse(registry.subscribe("alice", "Notification", "fr-FR", 5000L));
+
+    SubscriptionRegistry.Subscription subscription = registry.get("alice");
+    assertEquals("fr-FR", subscription.getLocale());
+    assertEquals(5000L, subscription.getSubscribedAtMillis());
+    assertEquals(0, registry.subscriptions("Notification", "en-US").count());
+    assertEquals(1, registry.subscriptions("Notification", "fr-FR").count());
+    assertTrue(registry.unsubscribe("alice"));
+    assertNull(registry.get("alice"));
+    assertEquals(0, registry.subscriptions("Notification", null).count());
+  }
+
+  @Test
+  public void concurrentSubscribesAreAllKept() throws Exception {
+    SubscriptionRegistry registry = new SubscriptionRegistry(16);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> results = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        int thread = t;
+        results.add(executor.submit(() -> {
+          for (int i = 0; i < 50000; i++) {
+            registry.subscribe(thread + "-" + i, "Notification", LOCALES[i % LOCALES.length], 0L);
+          }
+        }));
+      }
+      for (Future<?> result : results) {
+        result.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(400000, registry.size());
+    assertEquals(400000, registry.subscriptions("Notification", null).count());
+  }
+
+  @Test
+  public void loadRebuildsSubscriptionsFromTheStore() throws Exception {
+    UserStateStore store = new InMemoryUserStateStore();
+    store.put("alice", "{\"intent\":\"Notification\",\"locale\":\"fr-FR\",\"subscribedAt\":5000}");
+    store.put("bob", "{\"intent\":\"Notification\",\"subscribedAt\":6000}");
+    store.put("carol", "not a subscription");
+
+    SubscriptionRegistry registry = new SubscriptionRegistry(4);
+    assertEquals(2, registry.load(store));
+    assertEquals("fr-FR", registry.get("alice").getLocale());
+    assertEquals(5000L, registry.get("alice").getSubscribedAtMillis());
+    assertEquals(SubscriptionRegistry.DEFAULT_LOCALE, registry.get("bob").getLocale());
+    assertNull(registry.get("carol"));
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.BiConsumer;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Reads a webhook request body straight from the {@link ServletInputStream} into a pooled byte
+ * buffer and decodes it exactly once. Used as a {@link ReadListener} for non-blocking reads in
+ * async mode, or through {@link #readFully} when the request is handled synchronously.
+ */
+final class RequestBodyReader implements ReadListener {
+  private static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+  private static final int MAX_POOLED_BUFFER_SIZE = 256 * 1024;
+  private static final BlockingQueue<BodyBuffer> POOL = new ArrayBlockingQueue<>(64);
+
+  /** Thrown when a request body is larger than the configured maximum. */
+  static final class BodyTooLargeException extends IOException {
+    BodyTooLargeException(long maxBodyBytes) {
+      super("Request body exceeds " + maxBodyBytes + " bytes");
+    }
+  }
+
+  private final ServletInputStream input;
+  private final Charset charset;
+  private final int maxBodyBytes;
+  private final BiConsumer<String, Throwable> callback;
+  private BodyBuffer buffer;
+
+  RequestBodyReader(
+      HttpServletRequest req, int maxBodyBytes, BiConsumer<String, Throwable> callback)
+      throws IOException {
+    this.input = req.getInputStream();
+    this.charset = charsetOf(req);
+    this.maxBodyBytes = maxBodyBytes;
+    this.callback = callback;
+    this.buffer = acquire(req.getContentLength());
+  }
+
+  /** Reads the whole body of {@code req} on the calling thread. */
+  static String readFully(HttpServletRequest req, int maxBodyBytes) throws IOException {
+    BodyBuffer buffer = acquire(req.getContentLength());
+    try {
+      InputStream input = req.getInputStream();
+      while (buffer.readFrom(input, maxBodyBytes) != -1) {
+        // Keep reading until end of stream.
+      }
+      return buffer.decode(charsetOf(req));
+    } finally {
+      release(buffer);
+    }
+  }
+
+  @Override
+  public void onDataAvailable() throws IOException {
+    while (input.isReady()) {
+      if (buffer.readFrom(input, maxBodyBytes) == -1) {
+        return;
+      }
+    }
+  }
+
+  @Override
+  public void onAllDataRead() {
+    String body;
+    try {
+      body = buffer.decode(charset);
+    } finally {
+      release(buffer);
+      buffer = null;
+    }
+    callback.accept(body, null);
+  }
+
+  @Override
+  public void onError(Throwable t) {
+    if (buffer != null) {
+      release(buffer);
+      buffer = null;
+    }
+    callback.accept(null, t);
+  }
+
+  private static Charset charsetOf(HttpServletRequest req) {
+    String encoding = req.getCharacterEncoding();
+    return encoding == null ? StandardCharsets.UTF_8 : Charset.forName(encoding);
+  }
+
+  private static BodyBuffer acquire(int contentLength) {
+    BodyBuffer buffer = POOL.poll();
+    if (buffer == null) {
+      buffer = new BodyBuffer();
+    }
+    if (contentLength > 0) {
+      buffer.ensureCapacity(contentLength);
+    }
+    return buffer;
+  }
+
+  private static void release(BodyBuffer buffer) {
+    if (buffer.capacity() <= MAX_POOLED_BUFFER_SIZE) {
+      buffer.reset();
+      POOL.offer(buffer);
+    }
+  }
+
+  /** Growable byte buffer that streams read into directly, without an intermediate chunk. */
+  private static final class BodyBuffer extends ByteArrayOutputStream {
+    BodyBuffer() {
+      super(DEFAULT_BUFFER_SIZE);
+    }
+
+    int capacity() {
+      return buf.length;
+    }
+
+    void ensureCapacity(int capacity) {
+      if (capacity > buf.length) {
+        byte[] grown = new byte[Math.max(capacity, buf.length * 2)];
+        System.arraycopy(buf, 0, grown, 0, count);
+        buf = grown;
+      }
+    }
+
+    /** Reads once from {@code input} into the free space of the buffer. */
+    int readFrom(InputStream input, int maxBodyBytes) throws IOException {
+      if (count == buf.length) {
+        ensureCapacity(count + 1);
+      }
+      int read = input.read(buf, count, buf.length - count);
+      if (read > 0) {
+        count += read;
+        if (count > maxBodyBytes) {
+          throw new BodyTooLargeException(maxBodyBytes);
+        }
+      }
+      return read;
+    }
+
+    String decode(Charset charset) {
+      return new String(buf, 0, count, charset);
+    }
+  }
+}
@@ -41,11 +41,26 @@ import com.google.api.services.actions_fulfillment.v2.model.TableCard;
 import com.google.api.services.actions_fulfillment.v2.model.TableCardCell;
 import com.google.api.services.actions_fulfillment.v2.model.TableCardColumnProperties;
 import com.google.api.services.actions_fulfillment.v2.model.TableCardRow;
-import java.util.ArrayList;
 import java.util.Arrays;
 
 public class MyActionsApp extends DialogflowApp {
 
+  private static final String ASSISTANT_LOGO_URL =
+      "https://storage.googleapis.com/actionsresources/logo_assistant_2x_64dp.png";
+
+  // Has no slots, so it is rendered once; compiling checks the markup at startup
+  private static final String SSML_DEMO = SsmlTemplate.compile(ssml()).values().render();
+
+  // The rich responses never change, so each is built once by the factory shown with the intent
+  // that uses it. They are shared between requests and must not be modified.
+  private static final BasicCard BASIC_CARD = buildBasicCard();
+  private static final CarouselBrowse BROWSE_CAROUSEL = buildBrowseCarousel();
+  private static final MediaResponse MEDIA_RESPONSE = buildMediaResponse();
+  private static final TableCard SIMPLE_TABLE = buildSimpleTable();
+  private static final TableCard ADVANCED_TABLE = buildAdvancedTable();
+  private static final SelectionList LIST = buildList();
+  private static final SelectionCarousel CAROUSEL = buildCarousel();
+
   // [START df_java_simple_response]
   @ForIntent("Simple Response")
   public ActionResponse welcome(ActionRequest request) {
@@ -65,15 +80,18 @@ public class MyActionsApp extends DialogflowApp {
   @ForIntent("SSML")
   public ActionResponse ssml(ActionRequest request) {
     ResponseBuilder responseBuilder = getResponseBuilder(request);
-    responseBuilder.add(
-        "<speak>"
-            + "Here are <say-as interpet-as=\"characters\">SSML</say-as> examples."
-            + "Here is a buzzing fly "
-            + "<audio src=\"https://actions.google.com/sounds/v1/animals/buzzing_fly.ogg\"></audio>"
-            + "and here's a short pause <break time=\"800ms\"/>"
-            + "</speak>");
+    responseBuilder.add(SSML_DEMO);
     return responseBuilder.build();
   }
+
+  private static String ssml() {
+    return "<speak>"
+        + "Here are <say-as interpet-as=\"characters\">SSML</say-as> examples."
+        + "Here is a buzzing fly "
+        + "<audio src=\"https://actions.google.com/sounds/v1/animals/buzzing_fly.ogg\"></audio>"
+        + "and here's a short pause <break time=\"800ms\"/>"
+        + "</speak>";
+  }
   // [END df_java_ssml_demo]
 
   // [START df_java_basic_card]
@@ -87,38 +105,40 @@ public class MyActionsApp extends DialogflowApp {
           .build();
     }
 
-    // Prepare formatted text for card
-    String text =
-        "This is a basic card.  Text in a basic card can include \"quotes\" and\n"
-            + "  most other unicode characters including emoji \uD83D\uDCF1. Basic cards also support\n"
-            + "  some markdown formatting like *emphasis* or _italics_, **strong** or\n"
-            + "  __bold__, and ***bold itallic*** or ___strong emphasis___ as well as other\n"
-            + "  things like line  \\nbreaks"; // Note the two spaces before '\n' required for
-    // a line break to be rendered in the card.
     responseBuilder
         .add("Here's an example of a basic card.")
-        .add(
-            new BasicCard()
-                .setTitle("Title: this is a title")
-                .setSubtitle("This is a subtitle")
-                .setFormattedText(text)
-                .setImage(
-                    new Image()
-                        .setUrl(
-                            "https://storage.googleapis.com/actionsresources/logo_assistant_2x_64dp.png")
-                        .setAccessibilityText("Image alternate text"))
-                .setImageDisplayOptions("CROPPED")
-                .setButtons(
-                    new ArrayList<Button>(
-                        Arrays.asList(
-                            new Button()
-                                .setTitle("This is a Button")
-                                .setOpenUrlAction(
-                                    new OpenUrlAction().setUrl("https://assistant.google.com"))))))
+        .add(BASIC_CARD)
         .add("Which response would you like to see next?");
 
     return responseBuilder.build();
   }
+
+  private static BasicCard buildBasicCard() {
+    // Prepare formatted text for card. Note the two spaces before '\n' required for a line
+    // break to be rendered in the card.
+    String text =
+        "This is a basic card.  Text in a basic card can include \"quotes\" and\n"
+            + "  most other unicode characters including emoji \uD83D\uDCF1. Basic cards also"
+            + " support\n"
+            + "  some markdown formatting like *emphasis* or _italics_, **strong** or\n"
+            + "  __bold__, and ***bold itallic*** or ___strong emphasis___ as well as other\n"
+            + "  things like line  \\nbreaks";
+    return new BasicCard()
+        .setTitle("Title: this is a title")
+        .setSubtitle("This is a subtitle")
+        .setFormattedText(text)
+        .setImage(
+            new Image()
+                .setUrl(ASSISTANT_LOGO_URL)
+                .setAccessibilityText("Image alternate text"))
+        .setImageDisplayOptions("CROPPED")
+        .setButtons(
+            Arrays.asList(
+                new Button()
+                    .setTitle("This is a Button")
+                    .setOpenUrlAction(
+                        new OpenUrlAction().setUrl("https://assistant.google.com"))));
+  }
   // [END df_java_basic_card]
 
   // [START df_java_browse_caro]
@@ -135,34 +155,34 @@ public class MyActionsApp extends DialogflowApp {
 
     responseBuilder
         .add("Here's an example of a browsing carousel.")
-        .add(
-            new CarouselBrowse()
-                .setItems(
-                    new ArrayList<CarouselBrowseItem>(
-                        Arrays.asList(
-                            new CarouselBrowseItem()
-                                .setTitle("Title of item 1")
-                                .setDescription("Description of item 1")
-                                .setOpenUrlAction(new OpenUrlAction().setUrl("https://example.com"))
-                                .setImage(
-                                    new Image()
-                                        .setUrl(
-                                            "https://storage.googleapis.com/actionsresources/logo_assistant_2x_64dp.png")
-                                        .setAccessibilityText("Image alternate text"))
-                                .setFooter("Item 1 footer"),
-                            new CarouselBrowseItem()
-                                .setTitle("Title of item 2")
-                                .setDescription("Description of item 2")
-                                .setOpenUrlAction(new OpenUrlAction().setUrl("https://example.com"))
-                                .setImage(
-                                    new Image()
-                                        .setUrl(
-                                            "https://storage.googleapis.com/actionsresources/logo_assistant_2x_64dp.png")
-                                        .setAccessibilityText("Image alternate text"))
-                                .setFooter("Item 2 footer")))));
+        .add(BROWSE_CAROUSEL);
 
     return responseBuilder.build();
   }
+
+  private static CarouselBrowse buildBrowseCarousel() {
+    return new CarouselBrowse()
+        .setItems(
+            Arrays.asList(
+                new CarouselBrowseItem()
+                    .setTitle("Title of item 1")
+                    .setDescription("Description of item 1")
+                    .setOpenUrlAction(new OpenUrlAction().setUrl("https://example.com"))
+                    .setImage(
+                        new Image()
+                            .setUrl(ASSISTANT_LOGO_URL)
+                            .setAccessibilityText("Image alternate text"))
+                    .setFooter("Item 1 footer"),
+                new CarouselBrowseItem()
+                    .setTitle("Title of item 2")
+                    .setDescription("Description of item 2")
+                    .setOpenUrlAction(new OpenUrlAction().setUrl("https://example.com"))
+                    .setImage(
+                        new Image()
+                            .setUrl(ASSISTANT_LOGO_URL)
+                            .setAccessibilityText("Image alternate text"))
+                    .setFooter("Item 2 footer")));
+  }
   // [END df_java_browse_caro]
 
   // [START df_java_suggestion_chips]
@@ -201,25 +221,27 @@ public class MyActionsApp extends DialogflowApp {
 
     responseBuilder
         .add("This is a media response example.")
-        .add(
-            new MediaResponse()
-                .setMediaObjects(
-                    new ArrayList<MediaObject>(
-                        Arrays.asList(
-                            new MediaObject()
-                                .setName("Jazz in Paris")
-                                .setDescription("A funky Jazz tune")
-                                .setContentUrl(
-                                    "https://storage.googleapis.com/automotive-media/Jazz_In_Paris.mp3")
-                                .setIcon(
-                                    new Image()
-                                        .setUrl(
-                                            "https://storage.googleapis.com/automotive-media/album_art.jpg")
-                                        .setAccessibilityText("Album cover of an ocean view")))))
-                .setMediaType("AUDIO"))
+        .add(MEDIA_RESPONSE)
         .addSuggestions(new String[] {"Basic Card", "List", "Carousel", "Browsing Carousel"});
     return responseBuilder.build();
   }
+
+  private static MediaResponse buildMediaResponse() {
+    return new MediaResponse()
+        .setMediaObjects(
+            Arrays.asList(
+                new MediaObject()
+                    .setName("Jazz in Paris")
+                    .setDescription("A funky Jazz tune")
+                    .setContentUrl(
+                        "https://storage.googleapis.com/automotive-media/Jazz_In_Paris.mp3")
+                    .setIcon(
+                        new Image()
+                            .setUrl(
+                                "https://storage.googleapis.com/automotive-media/album_art.jpg")
+                            .setAccessibilityText("Album cover of an ocean view"))))
+        .setMediaType("AUDIO");
+  }
   // [END df_java_media_response]
 
   // [START df_java_media_status]
@@ -250,29 +272,32 @@ public class MyActionsApp extends DialogflowApp {
 
     responseBuilder
         .add("This is a simple table example.")
-        .add(
-            new TableCard()
-                .setColumnProperties(
-                    Arrays.asList(
-                        new TableCardColumnProperties().setHeader("header 1"),
-                        new TableCardColumnProperties().setHeader("header 2"),
-                        new TableCardColumnProperties().setHeader("header 3")))
-                .setRows(
-                    Arrays.asList(
-                        new TableCardRow()
-                            .setCells(
-                                Arrays.asList(
-                                    new TableCardCell().setText("row 1 item 1"),
-                                    new TableCardCell().setText("row 1 item 2"),
-                                    new TableCardCell().setText("row 1 item 3"))),
-                        new TableCardRow()
-                            .setCells(
-                                Arrays.asList(
-                                    new TableCardCell().setText("row 2 item 1"),
-                                    new TableCardCell().setText("row 2 item 2"),
-                                    new TableCardCell().setText("row 2 item 3"))))));
+        .add(SIMPLE_TABLE);
     return responseBuilder.build();
   }
+
+  private static TableCard buildSimpleTable() {
+    return new TableCard()
+        .setColumnProperties(
+            Arrays.asList(
+                new TableCardColumnProperties().setHeader("header 1"),
+                new TableCardColumnProperties().setHeader("header 2"),
+                new TableCardColumnProperties().setHeader("header 3")))
+        .setRows(
+            Arrays.asList(
+                new TableCardRow()
+                    .setCells(
+                        Arrays.asList(
+                            new TableCardCell().setText("row 1 item 1"),
+                            new TableCardCell().setText("row 1 item 2"),
+                            new TableCardCell().setText("row 1 item 3"))),
+                new TableCardRow()
+                    .setCells(
+                        Arrays.asList(
+                            new TableCardCell().setText("row 2 item 1"),
+                            new TableCardCell().setText("row 2 item 2"),
+                            new TableCardCell().setText("row 2 item 3")))));
+  }
   // [END df_java_table_simple]
 
   // [START df_java_table_complex]
@@ -288,56 +313,58 @@ public class MyActionsApp extends DialogflowApp {
 
     responseBuilder
         .add("This is a table with all the possible fields.")
-        .add(
-            new TableCard()
-                .setTitle("Table Title")
-                .setSubtitle("Table Subtitle")
-                .setImage(
-                    new Image()
-                        .setUrl(
-                            "https://storage.googleapis.com/actionsresources/logo_assistant_2x_64dp.png")
-                        .setAccessibilityText("Alt text"))
-                .setButtons(
-                    Arrays.asList(
-                        new Button()
-                            .setTitle("Button Text")
-                            .setOpenUrlAction(
-                                new OpenUrlAction().setUrl("https://assistant.google.com"))))
-                .setColumnProperties(
-                    Arrays.asList(
-                        new TableCardColumnProperties()
-                            .setHeader("header 1")
-                            .setHorizontalAlignment("CENTER"),
-                        new TableCardColumnProperties()
-                            .setHeader("header 2")
-                            .setHorizontalAlignment("LEADING"),
-                        new TableCardColumnProperties()
-                            .setHeader("header 3")
-                            .setHorizontalAlignment("TRAILING")))
-                .setRows(
-                    Arrays.asList(
-                        new TableCardRow()
-                            .setCells(
-                                Arrays.asList(
-                                    new TableCardCell().setText("row 1 item 1"),
-                                    new TableCardCell().setText("row 1 item 2"),
-                                    new TableCardCell().setText("row 1 item 3")))
-                            .setDividerAfter(false),
-                        new TableCardRow()
-                            .setCells(
-                                Arrays.asList(
-                                    new TableCardCell().setText("row 2 item 1"),
-                                    new TableCardCell().setText("row 2 item 2"),
-                                    new TableCardCell().setText("row 2 item 3")))
-                            .setDividerAfter(true),
-                        new TableCardRow()
-                            .setCells(
-                                Arrays.asList(
-                                    new TableCardCell().setText("row 2 item 1"),
-                                    new TableCardCell().setText("row 2 item 2"),
-                                    new TableCardCell().setText("row 2 item 3"))))));
+        .add(ADVANCED_TABLE);
     return responseBuilder.build();
   }
+
+  private static TableCard buildAdvancedTable() {
+    return new TableCard()
+        .setTitle("Table Title")
+        .setSubtitle("Table Subtitle")
+        .setImage(
+            new Image()
+                .setUrl(ASSISTANT_LOGO_URL)
+                .setAccessibilityText("Alt text"))
+        .setButtons(
+            Arrays.asList(
+                new Button()
+                    .setTitle("Button Text")
+                    .setOpenUrlAction(
+                        new OpenUrlAction().setUrl("https://assistant.google.com"))))
+        .setColumnProperties(
+            Arrays.asList(
+                new TableCardColumnProperties()
+                    .setHeader("header 1")
+                    .setHorizontalAlignment("CENTER"),
+                new TableCardColumnProperties()
+                    .setHeader("header 2")
+                    .setHorizontalAlignment("LEADING"),
+                new TableCardColumnProperties()
+                    .setHeader("header 3")
+                    .setHorizontalAlignment("TRAILING")))
+        .setRows(
+            Arrays.asList(
+                new TableCardRow()
+                    .setCells(
+                        Arrays.asList(
+                            new TableCardCell().setText("row 1 item 1"),
+                            new TableCardCell().setText("row 1 item 2"),
+                            new TableCardCell().setText("row 1 item 3")))
+                    .setDividerAfter(false),
+                new TableCardRow()
+                    .setCells(
+                        Arrays.asList(
+                            new TableCardCell().setText("row 2 item 1"),
+                            new TableCardCell().setText("row 2 item 2"),
+                            new TableCardCell().setText("row 2 item 3")))
+                    .setDividerAfter(true),
+                new TableCardRow()
+                    .setCells(
+                        Arrays.asList(
+                            new TableCardCell().setText("row 2 item 1"),
+                            new TableCardCell().setText("row 2 item 2"),
+                            new TableCardCell().setText("row 2 item 3")))));
+  }
   // [END df_java_table_complex]
 
   // [START df_java_list]
@@ -353,55 +380,52 @@ public class MyActionsApp extends DialogflowApp {
 
     responseBuilder
         .add("This is a list example.")
-        .add(
-            new SelectionList()
-                .setTitle("List Title")
-                .setItems(
-                    Arrays.asList(
-                        new ListSelectListItem()
-                            .setTitle("Title of First List Item")
-                            .setDescription("This is a description of a list item.")
-                            .setImage(
-                                new Image()
-                                    .setUrl(
-                                        "https://storage.googleapis.com/actionsresources/logo_assistant_2x_64dp.png")
-                                    .setAccessibilityText("Image alternate text"))
-                            .setOptionInfo(
-                                new OptionInfo()
-                                    .setSynonyms(
-                                        Arrays.asList("synonym 1", "synonym 2", "synonym 3"))
-                                    .setKey("SELECTION_KEY_ONE")),
-                        new ListSelectListItem()
-                            .setTitle("Google Home")
-                            .setDescription(
-                                "Google Home is a voice-activated speaker powered by the Google Assistant.")
-                            .setImage(
-                                new Image()
-                                    .setUrl(
-                                        "https://storage.googleapis.com/actionsresources/logo_assistant_2x_64dp.png")
-                                    .setAccessibilityText("Google Home"))
-                            .setOptionInfo(
-                                new OptionInfo()
-                                    .setSynonyms(
-                                        Arrays.asList(
-                                            "Google Home Assistant",
-                                            "Assistant on the Google Home"))
-                                    .setKey("SELECTION_KEY_GOOGLE_HOME")),
-                        new ListSelectListItem()
-                            .setTitle("Google Pixel")
-                            .setDescription("Pixel. Phone by Google.")
-                            .setImage(
-                                new Image()
-                                    .setUrl(
-                                        "https://storage.googleapis.com/actionsresources/logo_assistant_2x_64dp.png")
-                                    .setAccessibilityText("Google Pixel"))
-                            .setOptionInfo(
-                                new OptionInfo()
-                                    .setSynonyms(
-                                        Arrays.asList("Google Pixel XL", "Pixel", "Pixel XL"))
-                                    .setKey("SELECTION_KEY_GOOGLE_PIXEL")))));
+        .add(LIST);
     return responseBuilder.build();
   }
+
+  private static SelectionList buildList() {
+    return new SelectionList()
+        .setTitle("List Title")
+        .setItems(
+            Arrays.asList(
+                new ListSelectListItem()
+                    .setTitle("Title of First List Item")
+                    .setDescription("This is a description of a list item.")
+                    .setImage(
+                        new Image()
+                            .setUrl(ASSISTANT_LOGO_URL)
+                            .setAccessibilityText("Image alternate text"))
+                    .setOptionInfo(
+                        new OptionInfo()
+                            .setSynonyms(Arrays.asList("synonym 1", "synonym 2", "synonym 3"))
+                            .setKey("SELECTION_KEY_ONE")),
+                new ListSelectListItem()
+                    .setTitle("Google Home")
+                    .setDescription(
+                        "Google Home is a voice-activated speaker powered by the Google Assistant.")
+                    .setImage(
+                        new Image()
+                            .setUrl(ASSISTANT_LOGO_URL)
+                            .setAccessibilityText("Google Home"))
+                    .setOptionInfo(
+                        new OptionInfo()
+                            .setSynonyms(
+                                Arrays.asList(
+                                    "Google Home Assistant", "Assistant on the Google Home"))
+                            .setKey("SELECTION_KEY_GOOGLE_HOME")),
+                new ListSelectListItem()
+                    .setTitle("Google Pixel")
+                    .setDescription("Pixel. Phone by Google.")
+                    .setImage(
+                        new Image()
+                            .setUrl(ASSISTANT_LOGO_URL)
+                            .setAccessibilityText("Google Pixel"))
+                    .setOptionInfo(
+                        new OptionInfo()
+                            .setSynonyms(Arrays.asList("Google Pixel XL", "Pixel", "Pixel XL"))
+                            .setKey("SELECTION_KEY_GOOGLE_PIXEL"))));
+  }
   // [END df_java_list]
 
   // [START df_java_list_selected]
@@ -437,54 +461,51 @@ public class MyActionsApp extends DialogflowApp {
 
     responseBuilder
         .add("This is a carousel example.")
-        .add(
-            new SelectionCarousel()
-                .setItems(
-                    Arrays.asList(
-                        new CarouselSelectCarouselItem()
-                            .setTitle("Title of First List Item")
-                            .setDescription("This is a description of a list item.")
-                            .setImage(
-                                new Image()
-                                    .setUrl(
-                                        "https://storage.googleapis.com/actionsresources/logo_assistant_2x_64dp.png")
-                                    .setAccessibilityText("Image alternate text"))
-                            .setOptionInfo(
-                                new OptionInfo()
-                                    .setSynonyms(
-                                        Arrays.asList("synonym 1", "synonym 2", "synonym 3"))
-                                    .setKey("SELECTION_KEY_ONE")),
-                        new CarouselSelectCarouselItem()
-                            .setTitle("Google Home")
-                            .setDescription(
-                                "Google Home is a voice-activated speaker powered by the Google Assistant.")
-                            .setImage(
-                                new Image()
-                                    .setUrl(
-                                        "https://storage.googleapis.com/actionsresources/logo_assistant_2x_64dp.png")
-                                    .setAccessibilityText("Google Home"))
-                            .setOptionInfo(
-                                new OptionInfo()
-                                    .setSynonyms(
-                                        Arrays.asList(
-                                            "Google Home Assistant",
-                                            "Assistant on the Google Home"))
-                                    .setKey("SELECTION_KEY_GOOGLE_HOME")),
-                        new CarouselSelectCarouselItem()
-                            .setTitle("Google Pixel")
-                            .setDescription("Pixel. Phone by Google.")
-                            .setImage(
-                                new Image()
-                                    .setUrl(
-                                        "https://storage.googleapis.com/actionsresources/logo_assistant_2x_64dp.png")
-                                    .setAccessibilityText("Google Pixel"))
-                            .setOptionInfo(
-                                new OptionInfo()
-                                    .setSynonyms(
-                                        Arrays.asList("Google Pixel XL", "Pixel", "Pixel XL"))
-                                    .setKey("SELECTION_KEY_GOOGLE_PIXEL")))));
+        .add(CAROUSEL);
     return responseBuilder.build();
   }
+
+  private static SelectionCarousel buildCarousel() {
+    return new SelectionCarousel()
+        .setItems(
+            Arrays.asList(
+                new CarouselSelectCarouselItem()
+                    .setTitle("Title of First List Item")
+                    .setDescription("This is a description of a list item.")
+                    .setImage(
+                        new Image()
+                            .setUrl(ASSISTANT_LOGO_URL)
+                            .setAccessibilityText("Image alternate text"))
+                    .setOptionInfo(
+                        new OptionInfo()
+                            .setSynonyms(Arrays.asList("synonym 1", "synonym 2", "synonym 3"))
+                            .setKey("SELECTION_KEY_ONE")),
+                new CarouselSelectCarouselItem()
+                    .setTitle("Google Home")
+                    .setDescription(
+                        "Google Home is a voice-activated speaker powered by the Google Assistant.")
+                    .setImage(
+                        new Image()
+                            .setUrl(ASSISTANT_LOGO_URL)
+                            .setAccessibilityText("Google Home"))
+                    .setOptionInfo(
+                        new OptionInfo()
+                            .setSynonyms(
+                                Arrays.asList(
+                                    "Google Home Assistant", "Assistant on the Google Home"))
+                            .setKey("SELECTION_KEY_GOOGLE_HOME")),
+                new CarouselSelectCarouselItem()
+                    .setTitle("Google Pixel")
+                    .setDescription("Pixel. Phone by Google.")
+                    .setImage(
+                        new Image()
+                            .setUrl(ASSISTANT_LOGO_URL)
+                            .setAccessibilityText("Google Pixel"))
+                    .setOptionInfo(
+                        new OptionInfo()
+                            .setSynonyms(Arrays.asList("Google Pixel XL", "Pixel", "Pixel XL"))
+                            .setKey("SELECTION_KEY_GOOGLE_PIXEL"))));
+  }
   // [END df_java_caro]
 
   // [START df_java_caro_selected]
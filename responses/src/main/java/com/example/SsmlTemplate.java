@@ -0,0 +1,259 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SSML with named slots, parsed once into a list of segments and then rendered per request.
+ *
+ * <p>Slots are written {@code {name}} for text or {@code {name:int}} for integers, and a doubled
+ * opening brace stands for a literal one. Text values are XML escaped when rendered, so user
+ * supplied values such as place names cannot break the markup. The markup around the slots is
+ * checked for balanced tags when the template is compiled.
+ *
+ * <pre>{@code
+ * static final SsmlTemplate GREETING = SsmlTemplate.compile("<speak>Hi {name}!</speak>");
+ * static final int NAME = GREETING.slot("name");
+ * ...
+ * String ssml = GREETING.values().setText(NAME, name).render();
+ * }</pre>
+ */
+final class SsmlTemplate {
+  private static final int MAX_RETAINED_CHARS = 8 * 1024;
+  private static final ThreadLocal<StringBuilder> BUILDER =
+      ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+  private enum Type {
+    TEXT,
+    INT
+  }
+
+  private final String template;
+  // A segment is either a literal String or the Integer index of a slot
+  private final Object[] segments;
+  private final String[] names;
+  private final Type[] types;
+  private final int literalLength;
+
+  private SsmlTemplate(String template, Object[] segments, String[] names, Type[] types,
+      int literalLength) {
+    this.template = template;
+    this.segments = segments;
+    this.names = names;
+    this.types = types;
+    this.literalLength = literalLength;
+  }
+
+  /** Parses {@code template}, failing fast on malformed slots or unbalanced tags. */
+  static SsmlTemplate compile(String template) {
+    List<Object> segments = new ArrayList<>();
+    Map<String, Integer> slots = new LinkedHashMap<>();
+    List<Type> types = new ArrayList<>();
+    StringBuilder literal = new StringBuilder();
+    int literalLength = 0;
+    int i = 0;
+    while (i < template.length()) {
+      char c = template.charAt(i);
+      if (c == '{' && template.startsWith("{{", i)) {
+        literal.append('{');
+        i += 2;
+      } else if (c == '{') {
+        int end = template.indexOf('}', i);
+        if (end < 0) {
+          throw new IllegalArgumentException("Unclosed slot at " + i + " in " + template);
+        }
+        String slot = template.substring(i + 1, end);
+        int colon = slot.indexOf(':');
+        String name = colon < 0 ? slot : slot.substring(0, colon);
+        Type type = colon < 0 ? Type.TEXT : parseType(slot.substring(colon + 1), template);
+        if (name.isEmpty()) {
+          throw new IllegalArgumentException("Unnamed slot at " + i + " in " + template);
+        }
+        Integer index = slots.get(name);
+        if (index == null) {
+          index = slots.size();
+          slots.put(name, index);
+          types.add(type);
+        } else if (types.get(index) != type) {
+          throw new IllegalArgumentException("Slot " + name + " has two types in " + template);
+        }
+        if (literal.length() > 0) {
+          segments.add(literal.toString());
+          literalLength += literal.length();
+          literal.setLength(0);
+        }
+        segments.add(index);
+        i = end + 1;
+      } else {
+        literal.append(c);
+        i++;
+      }
+    }
+    if (literal.length() > 0) {
+      segments.add(literal.toString());
+      literalLength += literal.length();
+    }
+    checkTags(segments, template);
+    return new SsmlTemplate(template, segments.toArray(),
+        slots.keySet().toArray(new String[0]), types.toArray(new Type[0]), literalLength);
+  }
+
+  /** Returns the index of the slot called {@code name}, for use with {@link Values}. */
+  int slot(String name) {
+    for (int i = 0; i < names.length; i++) {
+      if (names[i].equals(name)) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("No slot " + name + " in " + template);
+  }
+
+  /** Starts a rendering of this template. */
+  Values values() {
+    return new Values();
+  }
+
+  /** Slot values for one rendering. Every slot must be set before {@link #render}. */
+  final class Values {
+    private final long[] ints = new long[names.length];
+    private final String[] texts = new String[names.length];
+    private final boolean[] set = new boolean[names.length];
+
+    Values setInt(int slot, long value) {
+      check(slot, Type.INT);
+      ints[slot] = value;
+      set[slot] = true;
+      return this;
+    }
+
+    Values setText(int slot, String value) {
+      check(slot, Type.TEXT);
+      texts[slot] = String.valueOf(value);
+      set[slot] = true;
+      return this;
+    }
+
+    String render() {
+      StringBuilder out = BUILDER.get();
+      out.setLength(0);
+      out.ensureCapacity(literalLength + 16 * names.length);
+      for (Object segment : segments) {
+        if (segment instanceof String) {
+          out.append((String) segment);
+          continue;
+        }
+        int slot = (Integer) segment;
+        if (!set[slot]) {
+          throw new IllegalStateException("Slot " + names[slot] + " not set for " + template);
+        }
+        if (types[slot] == Type.INT) {
+          out.append(ints[slot]);
+        } else {
+          escape(texts[slot], out);
+        }
+      }
+      String ssml = out.toString();
+      if (out.capacity() > MAX_RETAINED_CHARS) {
+        BUILDER.remove();
+      }
+      return ssml;
+    }
+
+    private void check(int slot, Type type) {
+      if (types[slot] != type) {
+        throw new IllegalArgumentException(
+            "Slot " + names[slot] + " is " + types[slot] + ", not " + type);
+      }
+    }
+  }
+
+  static void escape(String text, StringBuilder out) {
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      switch (c) {
+        case '&':
+          out.append("&amp;");
+          break;
+        case '<':
+          out.append("&lt;");
+          break;
+        case '>':
+          out.append("&gt;");
+          break;
+        case '"':
+          out.append("&quot;");
+          break;
+        case '\'':
+          out.append("&apos;");
+          break;
+        default:
+          out.append(c);
+      }
+    }
+  }
+
+  private static Type parseType(String type, String template) {
+    switch (type) {
+      case "text":
+        return Type.TEXT;
+      case "int":
+        return Type.INT;
+      default:
+        throw new IllegalArgumentException("Unknown slot type " + type + " in " + template);
+    }
+  }
+
+  /** Checks that the tags in the literal markup nest properly. Slots may only appear as text. */
+  private static void checkTags(List<Object> segments, String template) {
+    Deque<String> open = new ArrayDeque<>();
+    for (Object segment : segments) {
+      if (!(segment instanceof String)) {
+        continue;
+      }
+      String literal = (String) segment;
+      for (int i = literal.indexOf('<'); i >= 0; i = literal.indexOf('<', i + 1)) {
+        int end = literal.indexOf('>', i);
+        if (end < 0) {
+          throw new IllegalArgumentException("Unclosed tag in " + template);
+        }
+        String tag = literal.substring(i + 1, end);
+        if (tag.endsWith("/")) {
+          continue;
+        }
+        if (tag.startsWith("/")) {
+          String name = tag.substring(1).trim();
+          if (!name.equals(open.pollFirst())) {
+            throw new IllegalArgumentException("Unexpected </" + name + "> in " + template);
+          }
+        } else {
+          int space = tag.indexOf(' ');
+          open.push(space < 0 ? tag : tag.substring(0, space));
+        }
+        i = end;
+      }
+    }
+    if (!open.isEmpty()) {
+      throw new IllegalArgumentException("Unclosed <" + open.peek() + "> in " + template);
+    }
+  }
+}
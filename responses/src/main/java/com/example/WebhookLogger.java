@@ -0,0 +1,155 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs a sample of webhook request and response bodies. Each request is sampled at the rate
+ * configured for its intent (or the default rate), and logged bodies have user fields redacted and
+ * are truncated to a maximum length. Requests that are not sampled cost a single random draw.
+ *
+ * <p>Redaction walks the parsed body, so a user field is replaced whole whatever its value is: a
+ * string, an array of address lines or an object such as a profile or location. A body that does
+ * not parse is not logged at all.
+ */
+final class WebhookLogger {
+  private static final Logger LOG = LoggerFactory.getLogger(WebhookLogger.class);
+  private static final JsonElement REDACTED = new JsonPrimitive("<redacted>");
+  private static final Set<String> USER_FIELDS = new HashSet<>(Arrays.asList(
+      "userId", "idToken", "accessToken", "userStorage", "email", "givenName", "familyName",
+      "phoneNumber", "formattedAddress", "addressLines", "lastSeen", "profile", "location",
+      "coordinates"));
+  private static final Pattern INTENT_NAME =
+      Pattern.compile("\"intent\"\\s*:\\s*\\{[^{}]*?\"displayName\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+  private final double defaultSampleRate;
+  private final Map<String, Double> intentSampleRates;
+  private final int maxBodyChars;
+
+  WebhookLogger(double defaultSampleRate, Map<String, Double> intentSampleRates, int maxBodyChars) {
+    this.defaultSampleRate = defaultSampleRate;
+    this.intentSampleRates = Collections.unmodifiableMap(new HashMap<>(intentSampleRates));
+    this.maxBodyChars = maxBodyChars;
+  }
+
+  /**
+   * Parses per-intent sample rates written as {@code Intent Name=rate} pairs separated by commas,
+   * for example {@code Default Welcome Intent=1.0,Notification=0.01}.
+   */
+  static Map<String, Double> parseSampleRates(String rates) {
+    Map<String, Double> parsed = new HashMap<>();
+    if (rates == null) {
+      return parsed;
+    }
+    for (String entry : rates.split(",")) {
+      int separator = entry.lastIndexOf('=');
+      if (separator > 0) {
+        parsed.put(
+            entry.substring(0, separator).trim(),
+            Double.parseDouble(entry.substring(separator + 1).trim()));
+      }
+    }
+    return parsed;
+  }
+
+  /**
+   * Logs {@code body} if this request is sampled.
+   *
+   * @return whether the request was sampled, so its response can be logged as well
+   */
+  boolean logRequest(String body) {
+    if (!LOG.isInfoEnabled()) {
+      return false;
+    }
+    String intent = null;
+    double sampleRate = defaultSampleRate;
+    if (!intentSampleRates.isEmpty()) {
+      intent = intentOf(body);
+      Double intentRate = intentSampleRates.get(intent);
+      if (intentRate != null) {
+        sampleRate = intentRate;
+      }
+    }
+    if (sampleRate <= 0 || ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+      return false;
+    }
+    if (intent == null) {
+      intent = intentOf(body);
+    }
+    LOG.info(
+        "webhook request intent=\"{}\" chars={} body={}", intent, body.length(), sanitize(body));
+    return true;
+  }
+
+  /** Logs the response to a request for which {@link #logRequest} returned true. */
+  void logResponse(String json) {
+    LOG.info("webhook response chars={} body={}", json.length(), sanitize(json));
+  }
+
+  /** Returns {@code body} with its user fields redacted, truncated to the maximum length. */
+  String sanitize(String body) {
+    String redacted;
+    try {
+      JsonElement tree = new JsonParser().parse(body);
+      redact(tree);
+      redacted = tree.toString();
+    } catch (JsonParseException e) {
+      // Without the tree there is no telling which values are user fields
+      return "<unparseable>";
+    }
+    if (redacted.length() <= maxBodyChars) {
+      return redacted;
+    }
+    return redacted.substring(0, maxBodyChars) + "...<truncated>";
+  }
+
+  private static void redact(JsonElement element) {
+    if (element.isJsonObject()) {
+      for (Map.Entry<String, JsonElement> member : element.getAsJsonObject().entrySet()) {
+        if (USER_FIELDS.contains(member.getKey())) {
+          member.setValue(REDACTED);
+        } else {
+          redact(member.getValue());
+        }
+      }
+    } else if (element.isJsonArray()) {
+      for (JsonElement item : element.getAsJsonArray()) {
+        redact(item);
+      }
+    }
+  }
+
+  private static String intentOf(String body) {
+    Matcher matcher = INTENT_NAME.matcher(body);
+    return matcher.find() ? matcher.group(1) : null;
+  }
+}
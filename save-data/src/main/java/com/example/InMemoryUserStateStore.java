@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/** {@link UserStateStore} that keeps state in memory only, for tests and local runs. */
+public class InMemoryUserStateStore implements UserStateStore {
+  private final ConcurrentMap<String, String> states = new ConcurrentHashMap<>();
+
+  @Override
+  public String get(String userId) {
+    return states.get(userId);
+  }
+
+  @Override
+  public void put(String userId, String state) {
+    states.put(userId, state);
+  }
+
+  @Override
+  public void remove(String userId) {
+    states.remove(userId);
+  }
+
+  @Override
+  public Set<String> userIds() {
+    return new HashSet<>(states.keySet());
+  }
+
+  @Override
+  public void close() {
+  }
+}
@@ -21,16 +21,31 @@ import com.google.actions.api.ActionResponse;
 import com.google.actions.api.DialogflowApp;
 import com.google.actions.api.ForIntent;
 import com.google.actions.api.response.ResponseBuilder;
-import java.util.Map;
+import java.io.IOException;
 
 public class MyActionsApp extends DialogflowApp {
 
+  private static final boolean USER_STATE_ON_SERVER =
+      Boolean.getBoolean("actions.userStateOnServer");
+
+  private final UserStateStore userStateStore;
+
+  public MyActionsApp() {
+    this(USER_STATE_ON_SERVER ? UserStateStore.shared() : null);
+  }
+
+  /** @param userStateStore where saved results are kept, or null to keep them in userStorage */
+  public MyActionsApp(UserStateStore userStateStore) {
+    this.userStateStore = userStateStore;
+  }
+
   @ForIntent("Default Welcome Intent")
-  public ActionResponse welcome(ActionRequest request) {
+  public ActionResponse welcome(ActionRequest request) throws IOException {
     ResponseBuilder responseBuilder = getResponseBuilder(request);
-    Map<String, Object> userStorage = request.getUserStorage();
-    if (userStorage.containsKey("sum")) {
-      responseBuilder.add("Hi! Your last result was " + userStorage.get("sum") + ".");
+    CompactState userStorage = CompactState.of(
+        UserState.load(responseBuilder.getUserStorage(), userStateStore).values());
+    if (userStorage.contains("sum")) {
+      responseBuilder.add("Hi! Your last result was " + userStorage.getLong("sum", 0) + ".");
     } else {
       responseBuilder.add("Hi! Let's add two numbers.");
     }
@@ -41,7 +56,7 @@ public class MyActionsApp extends DialogflowApp {
   // [START save_data_between_turns_df]
   @ForIntent("Get First Number")
   public ActionResponse getFirstNumber(ActionRequest request) {
-    Integer firstNum = ((Double) request.getParameter("firstNum")).intValue();
+    int firstNum = RequestParameters.of(request).getInt("firstNum", 0);
 
     ResponseBuilder responseBuilder = getResponseBuilder(request);
     responseBuilder.getConversationData().put("firstNum", firstNum);
@@ -53,9 +68,9 @@ public class MyActionsApp extends DialogflowApp {
 
   @ForIntent("Get Second Number")
   public ActionResponse getSecondNumber(ActionRequest request) {
-    Integer firstNum = ((Double) request.getConversationData().get("firstNum")).intValue();
-    Integer secondNum = ((Double) request.getParameter("secondNum")).intValue();
-    Integer sum = firstNum + secondNum;
+    int firstNum = CompactState.of(request.getConversationData()).getInt("firstNum", 0);
+    int secondNum = RequestParameters.of(request).getInt("secondNum", 0);
+    int sum = firstNum + secondNum;
 
     ResponseBuilder responseBuilder = getResponseBuilder(request);
     responseBuilder.getConversationData().put("sum", sum);
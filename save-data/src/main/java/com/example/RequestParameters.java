@@ -0,0 +1,94 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import com.google.actions.api.ActionRequest;
+import java.util.Arrays;
+
+/**
+ * Typed access to the Dialogflow parameters of one {@link ActionRequest}. Each parameter is decoded
+ * the first time it is read and kept as a primitive {@code double}, so repeated reads neither
+ * re-parse nor box. Missing, non-numeric or out-of-range values yield the caller's default instead
+ * of a {@link ClassCastException} or {@link NullPointerException}.
+ */
+final class RequestParameters {
+
+  private static final int INITIAL_CAPACITY = 4;
+
+  private final ActionRequest request;
+  private String[] names = new String[INITIAL_CAPACITY];
+  private double[] values = new double[INITIAL_CAPACITY];
+  private int size;
+
+  private RequestParameters(ActionRequest request) {
+    this.request = request;
+  }
+
+  static RequestParameters of(ActionRequest request) {
+    return new RequestParameters(request);
+  }
+
+  int getInt(String name, int defaultValue) {
+    double value = decode(name);
+    return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE ? (int) value : defaultValue;
+  }
+
+  long getLong(String name, long defaultValue) {
+    double value = decode(name);
+    return value >= Long.MIN_VALUE && value <= Long.MAX_VALUE ? (long) value : defaultValue;
+  }
+
+  double getDouble(String name, double defaultValue) {
+    double value = decode(name);
+    return Double.isNaN(value) ? defaultValue : value;
+  }
+
+  boolean has(String name) {
+    return !Double.isNaN(decode(name));
+  }
+
+  /** Returns the parameter as a finite double, or {@code NaN} when it is absent or malformed. */
+  private double decode(String name) {
+    for (int i = 0; i < size; i++) {
+      if (names[i].equals(name)) {
+        return values[i];
+      }
+    }
+    double value = parse(request.getParameter(name));
+    if (size == names.length) {
+      names = Arrays.copyOf(names, size * 2);
+      values = Arrays.copyOf(values, size * 2);
+    }
+    names[size] = name;
+    values[size++] = value;
+    return value;
+  }
+
+  private static double parse(Object raw) {
+    double value = Double.NaN;
+    if (raw instanceof Number) {
+      value = ((Number) raw).doubleValue();
+    } else if (raw instanceof String) {
+      try {
+        value = Double.parseDouble(((String) raw).trim());
+      } catch (NumberFormatException e) {
+        return Double.NaN;
+      }
+    }
+    return Double.isInfinite(value) ? Double.NaN : value;
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import org.junit.jupiter.api.Test;
+
+public class CompactStateTest {
+
+  @Test
+  public void packedValuesRoundTrip() {
+    Map<String, Object> data = new HashMap<>();
+    CompactState.pack(data, "firstNum", 23);
+    CompactState.pack(data, "sum", 68.0);
+    CompactState.pack(data, "ratio", -0.25);
+    CompactState.pack(data, "verified", true);
+    CompactState.pack(data, "orderId", "0A-1B2C3D4E5F");
+    CompactState.pack(data, "missing", null);
+
+    assertEquals(1, data.size());
+    CompactState state = CompactState.of(data);
+    assertEquals(23L, state.getLong("firstNum", 0));
+    assertEquals(68L, state.get("sum"));
+    assertEquals(-0.25, state.get("ratio"));
+    assertEquals(Boolean.TRUE, state.get("verified"));
+    assertEquals("0A-1B2C3D4E5F", state.getString("orderId"));
+    assertTrue(state.contains("missing"));
+    assertNull(state.get("missing"));
+    assertFalse(state.contains("other"));
+  }
+
+  @Test
+  public void packingReplacesPlainEntries() {
+    Map<String, Object> data = new HashMap<>();
+    data.put("sum", 68.0);
+    assertEquals(68L, CompactState.of(data).getLong("sum", 0));
+
+    CompactState.pack(data, "sum", 70);
+    assertFalse(data.containsKey("sum"));
+    assertEquals(70L, CompactState.of(data).getLong("sum", 0));
+  }
+
+  @Test
+  public void largeValuesAreDeflated() {
+    StringBuilder location = new StringBuilder();
+    for (int i = 0; i < 20; i++) {
+      location.append("{\"city\":\"Mountain View\",\"zipCode\":\"94043\"}");
+    }
+    Map<String, Object> data = new HashMap<>();
+    CompactState.pack(data, "location", location.toString());
+
+    assertTrue(((String) data.get(CompactState.KEY)).length() < location.length() / 4);
+    assertEquals(location.toString(), CompactState.of(data).getString("location"));
+  }
+
+  @Test
+  public void malformedStateIsIgnored() {
+    Map<String, Object> data = new HashMap<>();
+    data.put(CompactState.KEY, "AQV");
+    data.put("sum", 5.0);
+    CompactState state = CompactState.of(data);
+    assertEquals(5L, state.getLong("sum", 0));
+    assertFalse(state.contains("firstNum"));
+  }
+
+  @Test
+  public void stateThatInflatesTooFarIsIgnored() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    bytes.write(0x81);
+    try (DeflaterOutputStream deflater = new DeflaterOutputStream(bytes)) {
+      deflater.write(new byte[CompactState.MAX_INFLATED_BYTES + 1]);
+    }
+    Map<String, Object> data = new HashMap<>();
+    data.put(CompactState.KEY, Base64.getUrlEncoder().encodeToString(bytes.toByteArray()));
+    assertFalse(CompactState.of(data).contains("firstNum"));
+  }
+
+  @Test
+  public void entryCountLargerThanPayloadIsIgnored() {
+    // Version 1 followed by a varint count of Integer.MAX_VALUE and no entries
+    byte[] bytes = {0x01, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07};
+    Map<String, Object> data = new HashMap<>();
+    data.put(CompactState.KEY, Base64.getUrlEncoder().encodeToString(bytes));
+    data.put("sum", 5.0);
+    CompactState state = CompactState.of(data);
+    assertEquals(5L, state.getLong("sum", 0));
+    assertFalse(state.contains("firstNum"));
+  }
+}
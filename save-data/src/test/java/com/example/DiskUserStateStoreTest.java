@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DiskUserStateStoreTest {
+
+  @TempDir
+  Path directory;
+
+  @Test
+  public void writesAreVisibleImmediatelyAndSurviveReopen() throws Exception {
+    try (DiskUserStateStore store = new DiskUserStateStore(directory, 2)) {
+      store.put("alice", "{\"sum\":1}");
+      store.put("alice", "{\"sum\":2}");
+      store.put("bob", "{\"favoriteColor\":\"blue\"}");
+      store.put("carol", "{}");
+      store.remove("carol");
+      assertEquals("{\"sum\":2}", store.get("alice"));
+      assertNull(store.get("carol"));
+    }
+    try (DiskUserStateStore store = new DiskUserStateStore(directory, 2)) {
+      assertEquals("{\"sum\":2}", store.get("alice"));
+      assertEquals("{\"favoriteColor\":\"blue\"}", store.get("bob"));
+      assertNull(store.get("carol"));
+      assertNull(store.get("dave"));
+    }
+  }
+
+  @Test
+  public void concurrentWritersKeepTheLatestValuePerUser() throws Exception {
+    int users = 50;
+    int writesPerUser = 200;
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try (DiskUserStateStore store = new DiskUserStateStore(directory, 10)) {
+      List<Future<?>> results = new ArrayList<>();
+      for (int u = 0; u < users; u++) {
+        String userId = "user-" + u;
+        results.add(executor.submit(() -> {
+          for (int i = 0; i < writesPerUser; i++) {
+            store.put(userId, Integer.toString(i));
+            assertEquals(Integer.toString(i), store.get(userId));
+          }
+          return null;
+        }));
+      }
+      for (Future<?> result : results) {
+        result.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    try (DiskUserStateStore store = new DiskUserStateStore(directory, 10)) {
+      for (int u = 0; u < users; u++) {
+        assertEquals(Integer.toString(writesPerUser - 1), store.get("user-" + u));
+      }
+    }
+  }
+
+  @Test
+  public void tornTailIsDiscarded() throws Exception {
+    try (DiskUserStateStore store = new DiskUserStateStore(directory, 10)) {
+      store.put("alice", "kept");
+    }
+    try (FileChannel log = FileChannel.open(directory.resolve("users.log"),
+        StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+      log.write(ByteBuffer.wrap(new byte[] {0, 0, 0, 42, 1, 2}));
+    }
+    try (DiskUserStateStore store = new DiskUserStateStore(directory, 10)) {
+      assertEquals("kept", store.get("alice"));
+      store.put("bob", "after");
+    }
+    try (DiskUserStateStore store = new DiskUserStateStore(directory, 10)) {
+      assertEquals("kept", store.get("alice"));
+      assertEquals("after", store.get("bob"));
+    }
+  }
+}
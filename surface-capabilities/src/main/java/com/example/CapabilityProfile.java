@@ -0,0 +1,71 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import java.util.function.Function;
+
+/**
+ * A combination of surface capabilities as a bitset. There are only {@link #PROFILE_COUNT}
+ * possible profiles, so each is a shared instance, and responses that depend only on capabilities
+ * can be built ahead of time for every profile as {@link Variants}.
+ */
+final class CapabilityProfile {
+  static final int SCREEN_OUTPUT = 1;
+  static final int AUDIO_OUTPUT = 1 << 1;
+  static final int MEDIA_RESPONSE_AUDIO = 1 << 2;
+  static final int WEB_BROWSER = 1 << 3;
+  static final int INTERACTIVE_CANVAS = 1 << 4;
+  static final int PROFILE_COUNT = 1 << 5;
+
+  private static final CapabilityProfile[] PROFILES = new CapabilityProfile[PROFILE_COUNT];
+  static {
+    for (int bits = 0; bits < PROFILE_COUNT; bits++) {
+      PROFILES[bits] = new CapabilityProfile(bits);
+    }
+  }
+
+  /** Responses precomputed for every profile. */
+  static final class Variants<T> {
+    private final Object[] byProfile = new Object[PROFILE_COUNT];
+
+    Variants(Function<CapabilityProfile, T> build) {
+      for (CapabilityProfile profile : PROFILES) {
+        byProfile[profile.bits] = build.apply(profile);
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    T get(CapabilityProfile profile) {
+      return (T) byProfile[profile.bits];
+    }
+  }
+
+  private final int bits;
+
+  private CapabilityProfile(int bits) {
+    this.bits = bits;
+  }
+
+  /** Returns the profile with exactly the capabilities in {@code bits}. */
+  static CapabilityProfile of(int bits) {
+    return PROFILES[bits];
+  }
+
+  boolean has(int flag) {
+    return (bits & flag) == flag;
+  }
+}
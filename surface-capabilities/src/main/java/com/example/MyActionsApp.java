@@ -30,6 +30,20 @@ import java.util.Map;
 
 public class MyActionsApp extends DialogflowApp {
 
+  private static final CapabilityProfile.Variants<String> CURRENT_CAPABILITIES =
+      new CapabilityProfile.Variants<>(profile ->
+          "Looks like your current device "
+              + (profile.has(CapabilityProfile.SCREEN_OUTPUT) ? "has" : "does not have")
+              + " the screen output capability, "
+              + (profile.has(CapabilityProfile.AUDIO_OUTPUT) ? "has" : "does not have")
+              + " the audio output capability, "
+              + (profile.has(CapabilityProfile.MEDIA_RESPONSE_AUDIO) ? "has" : "does not have")
+              + " the media capability, "
+              + (profile.has(CapabilityProfile.WEB_BROWSER) ? "has" : "does not have")
+              + " the browser capability, "
+              + (profile.has(CapabilityProfile.INTERACTIVE_CANVAS) ? "has" : "does not have")
+              + " the interactive canvas capability.");
+
   @ForIntent("Current Capabilities")
   public ActionResponse currentCapabilities(ActionRequest request) {
     // [START df_java_has_capability]
@@ -41,19 +55,16 @@ public class MyActionsApp extends DialogflowApp {
     boolean hasInteractiveCanvas = request.hasCapability("INTERACTIVE_CANVAS");
     // [END df_java_has_capability]
 
+    // Pick the message built ahead of time for this combination of capabilities
+    CapabilityProfile profile = CapabilityProfile.of(
+        (hasScreen ? CapabilityProfile.SCREEN_OUTPUT : 0)
+            | (hasAudio ? CapabilityProfile.AUDIO_OUTPUT : 0)
+            | (hasMediaPlayback ? CapabilityProfile.MEDIA_RESPONSE_AUDIO : 0)
+            | (hasWebBrowser ? CapabilityProfile.WEB_BROWSER : 0)
+            | (hasInteractiveCanvas ? CapabilityProfile.INTERACTIVE_CANVAS : 0));
+
     ResponseBuilder responseBuilder = getResponseBuilder(request);
-    responseBuilder.add(
-        "Looks like your current device "
-            + (hasScreen ? "has" : "does not have")
-            + " the screen output capability, "
-            + (hasAudio ? "has" : "does not have")
-            + " the audio output capability, "
-            + (hasMediaPlayback ? "has" : "does not have")
-            + " the media capability, "
-            + (hasWebBrowser ? "has" : "does not have")
-            + " the browser capability, "
-            + (hasInteractiveCanvas ? "has" : "does not have")
-            + " the interactive canvas capability.");
+    responseBuilder.add(CURRENT_CAPABILITIES.get(profile));
     responseBuilder.add("What else would you like to try?");
     responseBuilder.addSuggestions(
         new String[] {
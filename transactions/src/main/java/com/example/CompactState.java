@@ -0,0 +1,428 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Optional compact encoding for {@code conversationData} and {@code userStorage}. When enabled with
+ * the {@code actions.compactState} system property, values written through {@link #put} are packed
+ * into a single base64 entry under {@link #KEY} instead of one JSON member each, so the state that
+ * round-trips through the webhook every turn stays small.
+ *
+ * <p>The payload is a version byte followed by a varint entry count and, per entry, a length
+ * prefixed UTF-8 key, a type tag and the value. Payloads larger than {@link #DEFLATE_THRESHOLD}
+ * bytes are deflated. Encodings longer than {@code actions.compactState.maxChars} characters are
+ * not packed and the value is stored as a plain entry instead.
+ *
+ * <p>The payload comes back from the client, so decoding treats it as untrusted: it inflates to at
+ * most {@link #MAX_INFLATED_BYTES} and checks every count and length against the bytes that are
+ * left before using it. Anything that fails these checks is ignored like any other corrupt state.
+ *
+ * <p>A {@link CompactState} view decodes the payload once and indexes entry offsets, but only
+ * decodes the values a handler actually reads. Plain entries are still read, so state written
+ * before the encoding was enabled keeps working.
+ */
+final class CompactState {
+
+  static final String KEY = "_s";
+  static final boolean ENABLED = Boolean.getBoolean("actions.compactState");
+  static final int MAX_CHARS = Integer.getInteger("actions.compactState.maxChars", 4096);
+  static final int DEFLATE_THRESHOLD = 128;
+  // Bodies above this are never deflated, so their encoding is far longer than MAX_CHARS and
+  // they are never packed; anything that inflates past it was not written by encode
+  static final int MAX_INFLATED_BYTES = 8 * MAX_CHARS;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(CompactState.class);
+  private static final int VERSION = 1;
+  private static final int FLAG_DEFLATED = 0x80;
+  private static final int TAG_NULL = 0;
+  private static final int TAG_LONG = 1;
+  private static final int TAG_DOUBLE = 2;
+  private static final int TAG_STRING = 3;
+  private static final int TAG_FALSE = 4;
+  private static final int TAG_TRUE = 5;
+  private static final Object NULL = new Object();
+
+  private final Map<String, Object> data;
+  private final byte[] payload;
+  private String[] keys;
+  private int[] offsets;
+  private Object[] values;
+
+  private CompactState(Map<String, Object> data, byte[] payload) {
+    this.data = data;
+    this.payload = payload;
+  }
+
+  /** Returns a lazily decoded view over {@code data}. */
+  static CompactState of(Map<String, Object> data) {
+    Object encoded = data.get(KEY);
+    return new CompactState(data, encoded instanceof String ? decode((String) encoded) : null);
+  }
+
+  boolean contains(String key) {
+    return indexOf(key) >= 0 || data.containsKey(key);
+  }
+
+  Object get(String key) {
+    int index = indexOf(key);
+    if (index < 0) {
+      return data.get(key);
+    }
+    if (values[index] == null) {
+      values[index] = readValue(offsets[index]);
+    }
+    return values[index] == NULL ? null : values[index];
+  }
+
+  int getInt(String key, int defaultValue) {
+    long value = getLong(key, defaultValue);
+    return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE ? (int) value : defaultValue;
+  }
+
+  long getLong(String key, long defaultValue) {
+    Object value = get(key);
+    return value instanceof Number ? ((Number) value).longValue() : defaultValue;
+  }
+
+  String getString(String key) {
+    Object value = get(key);
+    return value == null ? null : value.toString();
+  }
+
+  /**
+   * Stores {@code value} under {@code key}, packing it into the compact entry when the encoding is
+   * enabled and the result fits within {@link #MAX_CHARS}.
+   */
+  static void put(Map<String, Object> data, String key, Object value) {
+    if (ENABLED) {
+      pack(data, key, value);
+    } else {
+      data.put(key, value);
+    }
+  }
+
+  /** Packs {@code value} into the compact entry regardless of {@link #ENABLED}. */
+  static void pack(Map<String, Object> data, String key, Object value) {
+    CompactState state = of(data);
+    Map<String, Object> entries = new LinkedHashMap<>();
+    for (String existing : state.keys()) {
+      entries.put(existing, state.get(existing));
+    }
+    entries.put(key, value);
+    String encoded = encode(entries);
+    if (encoded.length() > MAX_CHARS) {
+      LOGGER.warn("Compact state of {} chars exceeds {}, storing {} as a plain entry",
+          encoded.length(), MAX_CHARS, key);
+      // Drop any stale packed copy so the plain entry is the one that gets read
+      entries.remove(key);
+      if (entries.isEmpty()) {
+        data.remove(KEY);
+      } else {
+        data.put(KEY, encode(entries));
+      }
+      data.put(key, value);
+      return;
+    }
+    data.put(KEY, encoded);
+    data.remove(key);
+  }
+
+  static String encode(Map<String, Object> entries) {
+    Output out = new Output();
+    out.writeVarint(entries.size());
+    for (Map.Entry<String, Object> entry : entries.entrySet()) {
+      out.writeString(entry.getKey());
+      writeValue(out, entry.getValue());
+    }
+    byte[] body = out.toByteArray();
+    int header = VERSION;
+    if (body.length > DEFLATE_THRESHOLD && body.length <= MAX_INFLATED_BYTES) {
+      byte[] deflated = deflate(body);
+      if (deflated.length < body.length) {
+        body = deflated;
+        header |= FLAG_DEFLATED;
+      }
+    }
+    byte[] bytes = new byte[body.length + 1];
+    bytes[0] = (byte) header;
+    System.arraycopy(body, 0, bytes, 1, body.length);
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+  }
+
+  private static byte[] decode(String encoded) {
+    byte[] bytes;
+    try {
+      bytes = Base64.getUrlDecoder().decode(encoded);
+    } catch (IllegalArgumentException e) {
+      LOGGER.warn("Ignoring malformed compact state", e);
+      return null;
+    }
+    int header = bytes.length == 0 ? 0 : bytes[0] & 0xFF;
+    if ((header & ~FLAG_DEFLATED) != VERSION) {
+      LOGGER.warn("Ignoring compact state with unknown version");
+      return null;
+    }
+    if ((header & FLAG_DEFLATED) == 0) {
+      byte[] body = new byte[bytes.length - 1];
+      System.arraycopy(bytes, 1, body, 0, body.length);
+      return body;
+    }
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(bytes, 1, bytes.length - 1);
+      ByteArrayOutputStream out =
+          new ByteArrayOutputStream(Math.min(bytes.length * 4, MAX_INFLATED_BYTES));
+      byte[] chunk = new byte[512];
+      while (!inflater.finished()) {
+        int n = inflater.inflate(chunk);
+        if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new DataFormatException("truncated");
+        }
+        if (out.size() + n > MAX_INFLATED_BYTES) {
+          throw new DataFormatException("inflates past " + MAX_INFLATED_BYTES + " bytes");
+        }
+        out.write(chunk, 0, n);
+      }
+      return out.toByteArray();
+    } catch (DataFormatException e) {
+      LOGGER.warn("Ignoring corrupt compact state", e);
+      return null;
+    } finally {
+      inflater.end();
+    }
+  }
+
+  private static byte[] deflate(byte[] body) {
+    Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+    try {
+      deflater.setInput(body);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(body.length);
+      byte[] chunk = new byte[512];
+      while (!deflater.finished()) {
+        out.write(chunk, 0, deflater.deflate(chunk));
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private String[] keys() {
+    index();
+    return keys;
+  }
+
+  private int indexOf(String key) {
+    index();
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i].equals(key)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Records each key and the offset of its value, skipping over the values themselves. */
+  private void index() {
+    if (keys != null) {
+      return;
+    }
+    if (payload == null) {
+      keys = new String[0];
+      return;
+    }
+    try {
+      Input in = new Input(payload, 0);
+      int count = in.readVarint();
+      // Every entry takes at least a key length and a type tag
+      if (count < 0 || count > in.remaining() / 2) {
+        throw new IndexOutOfBoundsException("entry count " + count + " overruns payload");
+      }
+      String[] found = new String[count];
+      int[] foundOffsets = new int[count];
+      for (int i = 0; i < count; i++) {
+        found[i] = in.readString();
+        foundOffsets[i] = in.position;
+        skipValue(in);
+      }
+      offsets = foundOffsets;
+      values = new Object[count];
+      keys = found;
+    } catch (RuntimeException e) {
+      LOGGER.warn("Ignoring truncated compact state", e);
+      keys = new String[0];
+    }
+  }
+
+  private Object readValue(int offset) {
+    Input in = new Input(payload, offset);
+    switch (in.readByte()) {
+      case TAG_LONG:
+        return in.readZigZag();
+      case TAG_DOUBLE:
+        return Double.longBitsToDouble(in.readFixed64());
+      case TAG_STRING:
+        return in.readString();
+      case TAG_FALSE:
+        return Boolean.FALSE;
+      case TAG_TRUE:
+        return Boolean.TRUE;
+      default:
+        return NULL;
+    }
+  }
+
+  private static void skipValue(Input in) {
+    switch (in.readByte()) {
+      case TAG_LONG:
+        in.readZigZag();
+        break;
+      case TAG_DOUBLE:
+        in.skip(8);
+        break;
+      case TAG_STRING:
+        in.skip(in.readVarint());
+        break;
+      default:
+        break;
+    }
+  }
+
+  private static void writeValue(Output out, Object value) {
+    if (value == null) {
+      out.write(TAG_NULL);
+    } else if (value instanceof Integer || value instanceof Long
+        || value instanceof Short || value instanceof Byte) {
+      out.write(TAG_LONG);
+      out.writeZigZag(((Number) value).longValue());
+    } else if (value instanceof Number) {
+      double d = ((Number) value).doubleValue();
+      if (d == Math.rint(d) && Math.abs(d) < 0x1p53) {
+        // Numbers that came back through JSON are doubles, but most of them are whole
+        out.write(TAG_LONG);
+        out.writeZigZag((long) d);
+      } else {
+        out.write(TAG_DOUBLE);
+        out.writeFixed64(Double.doubleToLongBits(d));
+      }
+    } else if (value instanceof Boolean) {
+      out.write((Boolean) value ? TAG_TRUE : TAG_FALSE);
+    } else {
+      out.write(TAG_STRING);
+      out.writeString(value.toString());
+    }
+  }
+
+  private static final class Output extends ByteArrayOutputStream {
+
+    void writeVarint(long value) {
+      while ((value & ~0x7FL) != 0) {
+        write((int) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+      write((int) value);
+    }
+
+    void writeZigZag(long value) {
+      writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    void writeFixed64(long value) {
+      for (int i = 0; i < 8; i++) {
+        write((int) (value >>> (8 * i)));
+      }
+    }
+
+    void writeString(String value) {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      writeVarint(bytes.length);
+      write(bytes, 0, bytes.length);
+    }
+  }
+
+  private static final class Input {
+    private final byte[] bytes;
+    private int position;
+
+    Input(byte[] bytes, int position) {
+      this.bytes = bytes;
+      this.position = position;
+    }
+
+    int remaining() {
+      return bytes.length - position;
+    }
+
+    int readByte() {
+      return bytes[position++] & 0xFF;
+    }
+
+    void skip(int length) {
+      if (length < 0 || length > remaining()) {
+        throw new IndexOutOfBoundsException("length " + length + " overruns payload");
+      }
+      position += length;
+    }
+
+    int readVarint() {
+      return (int) readVarint64();
+    }
+
+    long readVarint64() {
+      long value = 0;
+      for (int shift = 0; ; shift += 7) {
+        int b = readByte();
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+    }
+
+    long readZigZag() {
+      long value = readVarint64();
+      return (value >>> 1) ^ -(value & 1);
+    }
+
+    long readFixed64() {
+      long value = 0;
+      for (int i = 0; i < 8; i++) {
+        value |= (long) readByte() << (8 * i);
+      }
+      return value;
+    }
+
+    String readString() {
+      int length = readVarint();
+      String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+      position += length;
+      return value;
+    }
+  }
+}
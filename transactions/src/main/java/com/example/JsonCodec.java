@@ -0,0 +1,172 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import com.google.api.services.actions_fulfillment.v2.model.Location;
+import com.google.api.services.actions_fulfillment.v2.model.OrderUpdateV3;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Shared JSON codec for the transactions sample. {@link Gson} instances are immutable and thread
+ * safe, so one is built at class load, with {@link LocationTypeAdapter} registered, and the type
+ * adapters for the model classes used on every request are looked up once.
+ */
+final class JsonCodec {
+  static final Gson GSON = new GsonBuilder()
+      .registerTypeAdapter(Location.class, new LocationTypeAdapter())
+      .create();
+
+  static final TypeAdapter<Location> LOCATION_ADAPTER = GSON.getAdapter(Location.class);
+  static final TypeAdapter<OrderUpdateV3> ORDER_UPDATE_ADAPTER =
+      GSON.getAdapter(OrderUpdateV3.class);
+
+  private JsonCodec() {
+  }
+
+  static <T> String toJson(TypeAdapter<T> adapter, T value) {
+    StringWriter out = new StringWriter();
+    try {
+      JsonWriter writer = newJsonWriter(out);
+      adapter.write(writer, value);
+      writer.flush();
+    } catch (IOException e) {
+      throw new JsonIOException(e);
+    }
+    return out.toString();
+  }
+
+  /**
+   * Writes the body of an orders API PATCH, {@code {"header":{...},"orderUpdate":{...}}}, in a
+   * single pass with the order update streamed straight into the envelope.
+   */
+  static String orderUpdateRequest(OrderUpdateV3 orderUpdate, boolean isInSandbox) {
+    StringWriter out = new StringWriter();
+    try {
+      JsonWriter writer = newJsonWriter(out);
+      writer.beginObject();
+      writer.name("header").beginObject().name("isInSandbox").value(isInSandbox).endObject();
+      writer.name("orderUpdate");
+      ORDER_UPDATE_ADAPTER.write(writer, orderUpdate);
+      writer.endObject();
+      writer.flush();
+    } catch (IOException e) {
+      throw new JsonIOException(e);
+    }
+    return out.toString();
+  }
+
+  /**
+   * Writes a Google Pay facilitation spec for a card payment through a payment gateway, streamed
+   * directly to JSON without building an intermediate object tree. The spec is written without its
+   * {@code transactionInfo}, which depends on the cart; see {@link
+   * #googlePaymentTransactionInfo}.
+   */
+  static String googlePaymentMethods(
+      String merchantName,
+      List<String> allowedAuthMethods,
+      List<String> allowedCardNetworks,
+      String gateway,
+      String gatewayMerchantId) {
+    StringWriter out = new StringWriter();
+    try {
+      JsonWriter writer = newJsonWriter(out);
+      writer.beginObject();
+      writer.name("apiVersion").value(2);
+      writer.name("apiVersionMinor").value(0);
+      writer.name("merchantInfo").beginObject().name("merchantName").value(merchantName)
+          .endObject();
+
+      writer.name("allowedPaymentMethods").beginArray().beginObject();
+      writer.name("type").value("CARD");
+      writer.name("parameters").beginObject();
+      writeStrings(writer.name("allowedAuthMethods"), allowedAuthMethods);
+      writeStrings(writer.name("allowedCardNetworks"), allowedCardNetworks);
+      writer.endObject();
+      writer.name("tokenizationSpecification").beginObject();
+      writer.name("type").value("PAYMENT_GATEWAY");
+      writer.name("parameters").beginObject()
+          .name("gateway").value(gateway)
+          .name("gatewayMerchantId").value(gatewayMerchantId)
+          .endObject();
+      writer.endObject();
+      writer.endObject().endArray();
+      writer.endObject();
+      writer.flush();
+    } catch (IOException e) {
+      throw new JsonIOException(e);
+    }
+    return out.toString();
+  }
+
+  /** Writes the {@code transactionInfo} object of a Google Pay facilitation spec. */
+  static String googlePaymentTransactionInfo(String totalPrice, String currencyCode) {
+    StringWriter out = new StringWriter();
+    try {
+      JsonWriter writer = newJsonWriter(out);
+      writer.beginObject()
+          .name("totalPriceStatus").value("FINAL")
+          .name("totalPrice").value(totalPrice)
+          .name("currencyCode").value(currencyCode)
+          .endObject();
+      writer.flush();
+    } catch (IOException e) {
+      throw new JsonIOException(e);
+    }
+    return out.toString();
+  }
+
+  private static void writeStrings(JsonWriter writer, List<String> values) throws IOException {
+    writer.beginArray();
+    for (String value : values) {
+      writer.value(value);
+    }
+    writer.endArray();
+  }
+
+  private static JsonWriter newJsonWriter(Writer out) throws IOException {
+    // Match the writer settings Gson.toJson uses.
+    JsonWriter writer = GSON.newJsonWriter(out);
+    writer.setLenient(true);
+    writer.setHtmlSafe(GSON.htmlSafe());
+    return writer;
+  }
+
+  /** Parses {@code json} with {@code adapter}; returns null for a null string. */
+  static <T> T fromJson(TypeAdapter<T> adapter, String json) {
+    if (json == null) {
+      return null;
+    }
+    try {
+      JsonReader reader = GSON.newJsonReader(new StringReader(json));
+      reader.setLenient(true);
+      return adapter.read(reader);
+    } catch (IOException | IllegalStateException e) {
+      throw new JsonSyntaxException(e);
+    }
+  }
+}
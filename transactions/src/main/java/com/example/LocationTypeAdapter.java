@@ -0,0 +1,235 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import com.google.api.services.actions_fulfillment.v2.model.LatLng;
+import com.google.api.services.actions_fulfillment.v2.model.Location;
+import com.google.api.services.actions_fulfillment.v2.model.PostalAddress;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes {@link Location} in a single streaming pass, building the {@link
+ * PostalAddress} and {@link LatLng} inline rather than from an intermediate {@code JsonElement}
+ * tree. Unknown fields are skipped.
+ */
+public class LocationTypeAdapter extends TypeAdapter<Location> {
+
+  @Override
+  public Location read(JsonReader in) throws IOException {
+    if (in.peek() == JsonToken.NULL) {
+      in.nextNull();
+      return null;
+    }
+    Location location = new Location();
+    in.beginObject();
+    while (in.hasNext()) {
+      String name = in.nextName();
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        continue;
+      }
+      switch (name) {
+        case "city":
+          location.setCity(in.nextString());
+          break;
+        case "name":
+          location.setName(in.nextString());
+          break;
+        case "notes":
+          location.setNotes(in.nextString());
+          break;
+        case "phoneNumber":
+          location.setPhoneNumber(in.nextString());
+          break;
+        case "placeId":
+          location.setPlaceId(in.nextString());
+          break;
+        case "zipCode":
+          location.setZipCode(in.nextString());
+          break;
+        case "formattedAddress":
+          location.setFormattedAddress(in.nextString());
+          break;
+        case "postalAddress":
+          location.setPostalAddress(readPostalAddress(in));
+          break;
+        case "coordinates":
+          location.setCoordinates(readLatLng(in));
+          break;
+        default:
+          in.skipValue();
+      }
+    }
+    in.endObject();
+    return location;
+  }
+
+  @Override
+  public void write(JsonWriter out, Location location) throws IOException {
+    if (location == null) {
+      out.nullValue();
+      return;
+    }
+    out.beginObject();
+    writeString(out, "city", location.getCity());
+    writeString(out, "name", location.getName());
+    writeString(out, "notes", location.getNotes());
+    writeString(out, "phoneNumber", location.getPhoneNumber());
+    writeString(out, "placeId", location.getPlaceId());
+    writeString(out, "zipCode", location.getZipCode());
+    writeString(out, "formattedAddress", location.getFormattedAddress());
+    PostalAddress address = location.getPostalAddress();
+    if (address != null) {
+      out.name("postalAddress").beginObject();
+      writeString(out, "regionCode", address.getRegionCode());
+      writeString(out, "languageCode", address.getLanguageCode());
+      writeString(out, "postalCode", address.getPostalCode());
+      writeString(out, "sortingCode", address.getSortingCode());
+      writeString(out, "administrativeArea", address.getAdministrativeArea());
+      writeString(out, "locality", address.getLocality());
+      writeString(out, "sublocality", address.getSublocality());
+      writeStrings(out, "addressLines", address.getAddressLines());
+      writeStrings(out, "recipients", address.getRecipients());
+      writeString(out, "organization", address.getOrganization());
+      if (address.getRevision() != null) {
+        out.name("revision").value(address.getRevision());
+      }
+      out.endObject();
+    }
+    LatLng coordinates = location.getCoordinates();
+    if (coordinates != null) {
+      out.name("coordinates").beginObject();
+      if (coordinates.getLatitude() != null) {
+        out.name("latitude").value(coordinates.getLatitude());
+      }
+      if (coordinates.getLongitude() != null) {
+        out.name("longitude").value(coordinates.getLongitude());
+      }
+      out.endObject();
+    }
+    out.endObject();
+  }
+
+  private static PostalAddress readPostalAddress(JsonReader in) throws IOException {
+    PostalAddress address = new PostalAddress();
+    in.beginObject();
+    while (in.hasNext()) {
+      String name = in.nextName();
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        continue;
+      }
+      switch (name) {
+        case "regionCode":
+          address.setRegionCode(in.nextString());
+          break;
+        case "languageCode":
+          address.setLanguageCode(in.nextString());
+          break;
+        case "postalCode":
+          address.setPostalCode(in.nextString());
+          break;
+        case "sortingCode":
+          address.setSortingCode(in.nextString());
+          break;
+        case "administrativeArea":
+          address.setAdministrativeArea(in.nextString());
+          break;
+        case "locality":
+          address.setLocality(in.nextString());
+          break;
+        case "sublocality":
+          address.setSublocality(in.nextString());
+          break;
+        case "addressLines":
+          address.setAddressLines(readStrings(in));
+          break;
+        case "recipients":
+          address.setRecipients(readStrings(in));
+          break;
+        case "organization":
+          address.setOrganization(in.nextString());
+          break;
+        case "revision":
+          address.setRevision(in.nextInt());
+          break;
+        default:
+          in.skipValue();
+      }
+    }
+    in.endObject();
+    return address;
+  }
+
+  private static LatLng readLatLng(JsonReader in) throws IOException {
+    LatLng latLng = new LatLng();
+    in.beginObject();
+    while (in.hasNext()) {
+      String name = in.nextName();
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        continue;
+      }
+      switch (name) {
+        case "latitude":
+          latLng.setLatitude(in.nextDouble());
+          break;
+        case "longitude":
+          latLng.setLongitude(in.nextDouble());
+          break;
+        default:
+          in.skipValue();
+      }
+    }
+    in.endObject();
+    return latLng;
+  }
+
+  private static List<String> readStrings(JsonReader in) throws IOException {
+    List<String> values = new ArrayList<>();
+    in.beginArray();
+    while (in.hasNext()) {
+      values.add(in.nextString());
+    }
+    in.endArray();
+    return values;
+  }
+
+  private static void writeString(JsonWriter out, String name, String value)
+      throws IOException {
+    if (value != null) {
+      out.name(name).value(value);
+    }
+  }
+
+  private static void writeStrings(JsonWriter out, String name, List<String> values)
+      throws IOException {
+    if (values != null) {
+      out.name(name).beginArray();
+      for (String value : values) {
+        out.value(value);
+      }
+      out.endArray();
+    }
+  }
+}
@@ -28,23 +28,16 @@ import com.google.actions.api.response.helperintent.transactions.v3.TransactionR
 import com.google.api.services.actions_fulfillment.v2.model.Action;
 import com.google.api.services.actions_fulfillment.v2.model.Argument;
 import com.google.api.services.actions_fulfillment.v2.model.DeliveryAddressValueSpecAddressOptions;
-import com.google.api.services.actions_fulfillment.v2.model.GooglePaymentOption;
 import com.google.api.services.actions_fulfillment.v2.model.LineItemV3;
 import com.google.api.services.actions_fulfillment.v2.model.Location;
-import com.google.api.services.actions_fulfillment.v2.model.MerchantPaymentMethod;
-import com.google.api.services.actions_fulfillment.v2.model.MerchantPaymentOption;
 import com.google.api.services.actions_fulfillment.v2.model.MerchantUnitMeasure;
 import com.google.api.services.actions_fulfillment.v2.model.MerchantV3;
 import com.google.api.services.actions_fulfillment.v2.model.MoneyV3;
 import com.google.api.services.actions_fulfillment.v2.model.OpenUrlAction;
 import com.google.api.services.actions_fulfillment.v2.model.OrderContents;
-import com.google.api.services.actions_fulfillment.v2.model.OrderOptionsV3;
 import com.google.api.services.actions_fulfillment.v2.model.OrderUpdateV3;
 import com.google.api.services.actions_fulfillment.v2.model.OrderV3;
-import com.google.api.services.actions_fulfillment.v2.model.PaymentMethodDisplayInfo;
-import com.google.api.services.actions_fulfillment.v2.model.PaymentMethodStatus;
 import com.google.api.services.actions_fulfillment.v2.model.PaymentParameters;
-import com.google.api.services.actions_fulfillment.v2.model.PresentationOptionsV3;
 import com.google.api.services.actions_fulfillment.v2.model.PriceAttribute;
 import com.google.api.services.actions_fulfillment.v2.model.PromotionV3;
 import com.google.api.services.actions_fulfillment.v2.model.PurchaseFulfillmentInfo;
@@ -56,32 +49,17 @@ import com.google.api.services.actions_fulfillment.v2.model.SimpleResponse;
 import com.google.api.services.actions_fulfillment.v2.model.StructuredResponse;
 import com.google.api.services.actions_fulfillment.v2.model.TimeV3;
 import com.google.api.services.actions_fulfillment.v2.model.UserInfo;
-import com.google.api.services.actions_fulfillment.v2.model.UserInfoOptions;
-import com.google.auth.oauth2.AccessToken;
-import com.google.auth.oauth2.ServiceAccountCredentials;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import com.google.protobuf.FieldMask;
 import com.google.protobuf.util.FieldMaskUtil;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.file.Paths;
 import java.time.Instant;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Map;
-import java.util.Random;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPatch;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -89,12 +67,26 @@ public class MyActionsApp extends DialogflowApp {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(MyActionsApp.class);
   private static final String SERVICE_ACCOUNT_KEY_FILE_NAME = "service-account.json";
-  private static final GsonBuilder GSON_BUILDER;
-  private static final LocationDeserializer LOCATION_DESERIALIZER;
-  static {
-    LOCATION_DESERIALIZER = new LocationDeserializer();
-    GSON_BUILDER = new GsonBuilder();
-    GSON_BUILDER.registerTypeAdapter(Location.class, LOCATION_DESERIALIZER);
+  private static final String ORDER_SCOPE =
+      "https://www.googleapis.com/auth/actions.order.developer";
+  // When set, order updates are queued in this directory and retried in the background; it
+  // must survive restarts, or queued updates are lost. Otherwise updates are sent directly.
+  private static final String ORDER_UPDATE_OUTBOX_DIR_PROPERTY = "actions.orderUpdateOutboxDir";
+
+  private static AccessTokenProvider accessTokenProvider;
+  private static OrderUpdateOutbox orderUpdateOutbox;
+  private final ResilientHttpClient httpClient;
+  private final OrderIdGenerator orderIdGenerator;
+
+  public MyActionsApp() {
+    this(new ResilientHttpClient(PooledHttpClient.shared()),
+        SequentialOrderIdGenerator.shared());
+  }
+
+  public MyActionsApp(ResilientHttpClient httpClient,
+      OrderIdGenerator orderIdGenerator) {
+    this.httpClient = httpClient;
+    this.orderIdGenerator = orderIdGenerator;
   }
 
   @ForIntent("Default Welcome Intent")
@@ -218,9 +210,8 @@ public class MyActionsApp extends DialogflowApp {
     ResponseBuilder responseBuilder = getResponseBuilder(request);
     if (deliveryAddress != null) {
       // Cache delivery address in conversation data for later use
-      Map<String, Object> conversationData = request.getConversationData();
-      conversationData.put("location",
-          GSON_BUILDER.create().toJson(deliveryAddress, Location.class));
+      CompactState.put(request.getConversationData(), "location",
+          JsonCodec.toJson(JsonCodec.LOCATION_ADAPTER, deliveryAddress));
       responseBuilder
           .add("Great, got your address! Now say \"confirm transaction\".")
           .addSuggestions(new String[] {
@@ -237,9 +228,9 @@ public class MyActionsApp extends DialogflowApp {
   public ActionResponse transactionDecision(ActionRequest request) {
     LOGGER.info("Checking Transaction Decision.");
 
-    String orderId = generateRandomOrderId();
+    String orderId = orderIdGenerator.nextId();
     Map<String, Object> conversationData = request.getConversationData();
-    conversationData.put("latestOrderId", orderId);
+    CompactState.put(conversationData, "latestOrderId", orderId);
 
     // Build the Order
     // [START build_order_df]
@@ -382,8 +373,9 @@ public class MyActionsApp extends DialogflowApp {
         .setCoupon("COUPON_CODE");
 
     // Purchase Order Extension
-    Location location = GSON_BUILDER.create().fromJson(
-        (String) conversationData.get("location"), Location.class);
+    Location location = JsonCodec.fromJson(
+        JsonCodec.LOCATION_ADAPTER,
+        CompactState.of(conversationData).getString("location"));
 
     PurchaseOrderExtension purchaseOrderExtension = new PurchaseOrderExtension()
         .setStatus("CREATED")
@@ -439,110 +431,36 @@ public class MyActionsApp extends DialogflowApp {
         .setPurchase(purchaseOrderExtension);
     // [END build_order_df]
 
-    // Create payment parameters
-    PaymentParameters paymentParameters = new PaymentParameters();
+    // Order options, presentation options and payment methods are the same
+    // for every order, so they are built once per merchant and reused
+    OrderTemplate orderTemplate = OrderTemplate.forMerchant("Example Merchant");
     if (request.getContext("google_payment") != null) {
       // [START ask_for_transaction_decision_google_payment_df]
-      // Create order options
-      OrderOptionsV3 orderOptions = new OrderOptionsV3()
-          .setUserInfoOptions(new UserInfoOptions()
-              .setUserInfoProperties(Collections.singletonList("EMAIL")));
-
-      // Create presentation options
-      PresentationOptionsV3 presentationOptions = new PresentationOptionsV3()
-          .setActionDisplayName("PLACE_ORDER");
-
-      // Create payment parameters
-      JSONObject merchantInfo = new JSONObject();
-      merchantInfo.put("merchantName", "Example Merchant");
-
-      JSONObject facilitationSpec = new JSONObject();
-      facilitationSpec.put("apiVersion", 2);
-      facilitationSpec.put("apiVersionMinor", 0);
-      facilitationSpec.put("merchantInfo", merchantInfo);
-
-      JSONObject allowedPaymentMethod = new JSONObject();
-      allowedPaymentMethod.put("type", "CARD");
-
-      JSONArray allowedAuthMethods = new JSONArray();
-      allowedAuthMethods.addAll(Arrays.asList("PAN_ONLY", "CRYPTOGRAM_3DS"));
-      JSONArray allowedCardNetworks = new JSONArray();
-      allowedCardNetworks.addAll(Arrays.asList("AMEX", "DISCOVER", "JCB", "MASTERCARD", "VISA"));
-
-      JSONObject allowedPaymentMethodParameters = new JSONObject();
-      allowedPaymentMethodParameters.put("allowedAuthMethods", allowedAuthMethods);
-      allowedPaymentMethodParameters.put("allowedCardNetworks", allowedCardNetworks);
-
-      allowedPaymentMethod.put("parameters", allowedPaymentMethodParameters);
-
-      JSONObject tokenizationSpecificationParameters = new JSONObject();
-      tokenizationSpecificationParameters.put("gateway", "example");
-      tokenizationSpecificationParameters.put("gatewayMerchantId", "exampleGatewayMerchantId");
-
-      JSONObject tokenizationSpecification = new JSONObject();
-      tokenizationSpecification.put("type", "PAYMENT_GATEWAY");
-      tokenizationSpecification.put("parameters", tokenizationSpecificationParameters);
-      allowedPaymentMethod.put("tokenizationSpecification", tokenizationSpecification);
-
-      JSONArray allowedPaymentMethods = new JSONArray();
-      allowedPaymentMethods.add(allowedPaymentMethod);
-
-      facilitationSpec.put("allowedPaymentMethods", allowedPaymentMethods);
-
-      JSONObject transactionInfo = new JSONObject();
-      transactionInfo.put("totalPriceStatus", "FINAL");
-      transactionInfo.put("totalPrice", "15.77");
-      transactionInfo.put("currencyCode", "USD");
-
-      facilitationSpec.put("transactionInfo", transactionInfo);
-
-      GooglePaymentOption googlePaymentOption = new GooglePaymentOption()
-          .setFacilitationSpec(facilitationSpec.toJSONString());
-      paymentParameters.setGooglePaymentOption(googlePaymentOption);
+      // Order options, presentation options and the Google Pay payment
+      // methods come from the merchant's order template
+      PaymentParameters paymentParameters =
+          orderTemplate.googlePaymentParameters("15.77", "USD");
 
       return getResponseBuilder(request)
           .add(new TransactionDecision()
               .setOrder(order)
-              .setOrderOptions(orderOptions)
-              .setPresentationOptions(presentationOptions)
+              .setOrderOptions(orderTemplate.getOrderOptions())
+              .setPresentationOptions(orderTemplate.getPresentationOptions())
               .setPaymentParameters(paymentParameters)
           )
           .build();
       // [END ask_for_transaction_decision_google_payment_df]
     } else {
       // [START ask_for_transaction_decision_merchant_payment_df]
-      // Create order options
-      OrderOptionsV3 orderOptions = new OrderOptionsV3()
-          .setUserInfoOptions(new UserInfoOptions()
-              .setUserInfoProperties(Collections.singletonList("EMAIL")));
-
-      // Create presentation options
-      PresentationOptionsV3 presentationOptions = new PresentationOptionsV3()
-          .setActionDisplayName("PLACE_ORDER");
-
-      // Create payment parameters
-      MerchantPaymentMethod merchantPaymentMethod = new MerchantPaymentMethod()
-          .setPaymentMethodDisplayInfo(new PaymentMethodDisplayInfo()
-              .setPaymentMethodDisplayName("VISA **** 1234")
-              .setPaymentType("PAYMENT_CARD"))
-          .setPaymentMethodGroup("Payment method group")
-          .setPaymentMethodId("12345678")
-          .setPaymentMethodStatus(new PaymentMethodStatus()
-              .setStatus("STATUS_OK")
-              .setStatusMessage("Status message"));
-
-      MerchantPaymentOption merchantPaymentOption = new MerchantPaymentOption()
-          .setDefaultMerchantPaymentMethodId("12345678")
-          .setManagePaymentMethodUrl("https://example.com/managePayment")
-          .setMerchantPaymentMethod(Collections.singletonList(merchantPaymentMethod));
-
-      paymentParameters.setMerchantPaymentOption(merchantPaymentOption);
+      // Order options, presentation options and the merchant payment
+      // methods come from the merchant's order template
+      PaymentParameters paymentParameters = orderTemplate.merchantPaymentParameters();
 
       return getResponseBuilder(request)
           .add(new TransactionDecision()
               .setOrder(order)
-              .setOrderOptions(orderOptions)
-              .setPresentationOptions(presentationOptions)
+              .setOrderOptions(orderTemplate.getOrderOptions())
+              .setPresentationOptions(orderTemplate.getPresentationOptions())
               .setPaymentParameters(paymentParameters)
           )
           .build();
@@ -589,8 +507,8 @@ public class MyActionsApp extends DialogflowApp {
           .setReason("Reason string")
           .setOrder(order);
 
-      Map<String, Object> conversationData = request.getConversationData();
-      String orderId = (String) conversationData.get("latestOrderId");
+      String orderId =
+          CompactState.of(request.getConversationData()).getString("latestOrderId");
       responseBuilder
           .add("Transaction completed! Your order " + orderId + " is all set!")
           .addSuggestions(new String[] {"send order update"})
@@ -606,27 +524,9 @@ public class MyActionsApp extends DialogflowApp {
   @ForIntent("Send Order Update")
   public ActionResponse sendOrderUpdate(ActionRequest request)
       throws IOException {
-    Map<String, Object> conversationData = request.getConversationData();
-    String orderId = (String) conversationData.get("latestOrderId");
+    String orderId =
+        CompactState.of(request.getConversationData()).getString("latestOrderId");
     // [START order_update]
-    // Setup service account credentials
-    String serviceAccountFile = MyActionsApp.class.getClassLoader()
-        .getResource(SERVICE_ACCOUNT_KEY_FILE_NAME)
-        .getFile();
-    InputStream actionsApiServiceAccount = new FileInputStream(
-        serviceAccountFile);
-    ServiceAccountCredentials serviceAccountCredentials = (ServiceAccountCredentials)
-        ServiceAccountCredentials.fromStream(actionsApiServiceAccount)
-            .createScoped(Collections.singleton(
-                "https://www.googleapis.com/auth/actions.order.developer"));
-    AccessToken token = serviceAccountCredentials.refreshAccessToken();
-
-    // Setup request with headers
-    HttpPatch patchRequest = new HttpPatch(
-        "https://actions.googleapis.com/v3/orders/" + orderId);
-    patchRequest.setHeader("Content-type", "application/json");
-    patchRequest.setHeader("Authorization", "Bearer " + token.getTokenValue());
-
     // Create order update
     FieldMask fieldMask = FieldMask.newBuilder().addAllPaths(Arrays.asList(
         "lastUpdateTime",
@@ -645,23 +545,25 @@ public class MyActionsApp extends DialogflowApp {
         .setReason("Order status was updated to delivered.");
 
     // Setup JSON body containing order update
-    JsonParser parser = new JsonParser();
-    JsonObject orderUpdateJson =
-        parser.parse(new Gson().toJson(orderUpdate)).getAsJsonObject();
-    JsonObject body = new JsonObject();
-    body.add("orderUpdate", orderUpdateJson);
-    JsonObject header = new JsonObject();
-    header.addProperty("isInSandbox", true);
-    body.add("header", header);
-    StringEntity entity = new StringEntity(body.toString());
-    entity.setContentType(ContentType.APPLICATION_JSON.getMimeType());
-    patchRequest.setEntity(entity);
-
-    // Make request
-    HttpClient httpClient = HttpClientBuilder.create().build();
-    HttpResponse response = httpClient.execute(patchRequest);
-    LOGGER.info(response.getStatusLine().getStatusCode() + " " + response
-        .getStatusLine().getReasonPhrase());
+    String body = JsonCodec.orderUpdateRequest(orderUpdate, true);
+
+    OrderUpdateOutbox outbox = getOrderUpdateOutbox();
+    if (outbox != null) {
+      // Queue the update; it is sent to the orders API in the background
+      outbox.append(orderId, body);
+    } else {
+      // Setup request with headers
+      HttpPatch patchRequest = new HttpPatch(
+          "https://actions.googleapis.com/v3/orders/" + orderId);
+      patchRequest.setHeader("Content-type", "application/json");
+      patchRequest.setHeader("Authorization",
+          "Bearer " + getAccessTokenProvider().getTokenValue());
+      patchRequest.setEntity(new StringEntity(body, ContentType.APPLICATION_JSON));
+
+      // Make request
+      PooledHttpClient.Response response = httpClient.execute(patchRequest);
+      LOGGER.info(response.getStatusCode() + " " + response.getReasonPhrase());
+    }
 
     return getResponseBuilder(request)
         .add("The order has been updated.")
@@ -669,13 +571,26 @@ public class MyActionsApp extends DialogflowApp {
     // [END order_update]
   }
 
-  private static String generateRandomOrderId() {
-    StringBuilder sb = new StringBuilder();
-    Random random = new Random();
-    String validCharacters = "ABCDEFGHIJKLMNOPQRSTUVWXYZ1234567890";
-    for (int i = 0; i < 6; i++) {
-      sb.append(validCharacters.charAt(random.nextInt(validCharacters.length())));
+  private static synchronized AccessTokenProvider getAccessTokenProvider() throws IOException {
+    if (accessTokenProvider == null) {
+      accessTokenProvider = AccessTokenProvider.fromServiceAccountResource(
+          SERVICE_ACCOUNT_KEY_FILE_NAME, ORDER_SCOPE);
+    }
+    return accessTokenProvider;
+  }
+
+  /** Returns the order update outbox, or null if no outbox directory is configured. */
+  private OrderUpdateOutbox getOrderUpdateOutbox() throws IOException {
+    synchronized (MyActionsApp.class) {
+      if (orderUpdateOutbox == null) {
+        String directory = System.getProperty(ORDER_UPDATE_OUTBOX_DIR_PROPERTY);
+        if (directory == null || directory.isEmpty()) {
+          return null;
+        }
+        orderUpdateOutbox = new OrderUpdateOutbox(Paths.get(directory),
+            new OrderUpdateSender(getAccessTokenProvider(), httpClient));
+      }
+      return orderUpdateOutbox;
     }
-    return sb.toString();
   }
 }
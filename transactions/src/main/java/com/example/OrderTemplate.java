@@ -0,0 +1,114 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import com.google.api.services.actions_fulfillment.v2.model.GooglePaymentOption;
+import com.google.api.services.actions_fulfillment.v2.model.MerchantPaymentMethod;
+import com.google.api.services.actions_fulfillment.v2.model.MerchantPaymentOption;
+import com.google.api.services.actions_fulfillment.v2.model.OrderOptionsV3;
+import com.google.api.services.actions_fulfillment.v2.model.PaymentMethodDisplayInfo;
+import com.google.api.services.actions_fulfillment.v2.model.PaymentMethodStatus;
+import com.google.api.services.actions_fulfillment.v2.model.PaymentParameters;
+import com.google.api.services.actions_fulfillment.v2.model.PresentationOptionsV3;
+import com.google.api.services.actions_fulfillment.v2.model.UserInfoOptions;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The parts of a transaction decision that are the same for every order placed with a merchant:
+ * order and presentation options and payment options. They are built once per merchant and shared
+ * by all of its orders. The Google Pay facilitation spec is likewise serialized once, with only
+ * its transaction info appended per order.
+ *
+ * <p>The shared objects are never modified after construction and must not be modified by
+ * callers.
+ */
+final class OrderTemplate {
+  private static final ConcurrentMap<String, OrderTemplate> TEMPLATES = new ConcurrentHashMap<>();
+
+  private final OrderOptionsV3 orderOptions;
+  private final PresentationOptionsV3 presentationOptions;
+  private final MerchantPaymentOption merchantPaymentOption;
+  private final String facilitationSpecPrefix;
+
+  private OrderTemplate(String merchantName) {
+    // Order options
+    orderOptions = new OrderOptionsV3()
+        .setUserInfoOptions(new UserInfoOptions()
+            .setUserInfoProperties(Collections.singletonList("EMAIL")));
+
+    // Presentation options
+    presentationOptions = new PresentationOptionsV3()
+        .setActionDisplayName("PLACE_ORDER");
+
+    // Merchant-managed payment options
+    MerchantPaymentMethod merchantPaymentMethod = new MerchantPaymentMethod()
+        .setPaymentMethodDisplayInfo(new PaymentMethodDisplayInfo()
+            .setPaymentMethodDisplayName("VISA **** 1234")
+            .setPaymentType("PAYMENT_CARD"))
+        .setPaymentMethodGroup("Payment method group")
+        .setPaymentMethodId("12345678")
+        .setPaymentMethodStatus(new PaymentMethodStatus()
+            .setStatus("STATUS_OK")
+            .setStatusMessage("Status message"));
+    merchantPaymentOption = new MerchantPaymentOption()
+        .setDefaultMerchantPaymentMethodId("12345678")
+        .setManagePaymentMethodUrl("https://example.com/managePayment")
+        .setMerchantPaymentMethod(Collections.singletonList(merchantPaymentMethod));
+
+    // Google Pay payment methods, serialized once. The closing brace is dropped so the
+    // per-order transaction info can be appended as the last field.
+    String paymentMethods = JsonCodec.googlePaymentMethods(
+        merchantName,
+        Arrays.asList("PAN_ONLY", "CRYPTOGRAM_3DS"),
+        Arrays.asList("AMEX", "DISCOVER", "JCB", "MASTERCARD", "VISA"),
+        "example",
+        "exampleGatewayMerchantId");
+    facilitationSpecPrefix = paymentMethods.substring(0, paymentMethods.length() - 1)
+        + ",\"transactionInfo\":";
+  }
+
+  /** Returns the cached template for a merchant, building it on first use. */
+  static OrderTemplate forMerchant(String merchantName) {
+    return TEMPLATES.computeIfAbsent(merchantName, OrderTemplate::new);
+  }
+
+  OrderOptionsV3 getOrderOptions() {
+    return orderOptions;
+  }
+
+  PresentationOptionsV3 getPresentationOptions() {
+    return presentationOptions;
+  }
+
+  /** Returns payment parameters for paying {@code totalPrice} with Google Pay. */
+  PaymentParameters googlePaymentParameters(String totalPrice, String currencyCode) {
+    String facilitationSpec = facilitationSpecPrefix
+        + JsonCodec.googlePaymentTransactionInfo(totalPrice, currencyCode) + "}";
+    return new PaymentParameters()
+        .setGooglePaymentOption(new GooglePaymentOption()
+            .setFacilitationSpec(facilitationSpec));
+  }
+
+  /** Returns payment parameters for paying with a merchant-managed payment method. */
+  PaymentParameters merchantPaymentParameters() {
+    return new PaymentParameters()
+        .setMerchantPaymentOption(merchantPaymentOption);
+  }
+}
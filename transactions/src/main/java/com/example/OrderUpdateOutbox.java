@@ -0,0 +1,575 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Durable, append-only queue of order updates. {@link #append} returns once the update is on disk,
+ * and a background thread hands updates to a {@link Sender} in the order they were appended. When
+ * a send fails, that order is parked and retried with backoff while other orders carry on; later
+ * updates to a parked order wait behind the failed one, so updates to the same order are never
+ * reordered. Updates survive restarts: on open, anything not yet acknowledged by the sender is
+ * delivered again, so an update may be sent more than once.
+ *
+ * <p>Updates are stored in segment files of length-prefixed, checksummed records. Concurrent
+ * appenders share fsyncs: whichever caller flushes first makes every record written so far
+ * durable. A cursor file records how far the sender has got, and fully sent segments are deleted.
+ * A record that fails its checksum is set aside with the rest of its segment in a {@code .corrupt}
+ * file, so it can't hold up the updates behind it.
+ */
+public class OrderUpdateOutbox implements Closeable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(OrderUpdateOutbox.class);
+  private static final long SEGMENT_BYTES = 16L * 1024 * 1024;
+  private static final int HEADER_BYTES = 8;
+  private static final int MAX_RECORD_BYTES = 4 * 1024 * 1024;
+  private static final long DEFAULT_RETRY_DELAY_MILLIS = 5000;
+  private static final long MAX_RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+  private static final int MAX_PARKED_RECORDS = 10_000;
+  private static final int CURSOR_SAVE_INTERVAL = 100;
+  private static final String SEGMENT_SUFFIX = ".seg";
+  private static final String CURSOR_FILE = "cursor";
+
+  /** Delivers one order update. */
+  public interface Sender {
+    /**
+     * Sends an update for {@code orderId}.
+     *
+     * @return true if the update is done with, false if it should be tried again later
+     */
+    boolean send(String orderId, String body) throws IOException;
+  }
+
+  /** An update read from the log but not yet sent. */
+  private static final class Parked {
+    final long segment;
+    final long position;
+    final String body;
+
+    Parked(long segment, long position, String body) {
+      this.segment = segment;
+      this.position = position;
+      this.body = body;
+    }
+  }
+
+  /** The updates to one order held back after a failed send, oldest first. */
+  private static final class ParkedOrder {
+    final ArrayDeque<Parked> updates = new ArrayDeque<>();
+    int attempts;
+    long retryAtNanos;
+  }
+
+  private final Path directory;
+  private final Sender sender;
+  private final long retryDelayMillis;
+  private final Object writeLock = new Object();
+  private final Object flushLock = new Object();
+  private final AtomicLong durableSeq = new AtomicLong();
+  private final Thread dispatcher;
+  private volatile boolean closed;
+
+  // Guarded by writeLock.
+  private FileChannel writeChannel;
+  private long writeSegment;
+  private long writePosition;
+  private long appendedSeq;
+
+  // Only used by the dispatcher thread.
+  private FileChannel readChannel;
+  private long readSegment;
+  private long readPosition;
+  private long oldestSegment;
+  private int unsavedRecords;
+  private final Map<String, ParkedOrder> parked = new HashMap<>();
+  private int parkedRecords;
+  private long nextRetryNanos;
+
+  public OrderUpdateOutbox(Path directory, Sender sender) throws IOException {
+    this(directory, sender, DEFAULT_RETRY_DELAY_MILLIS);
+  }
+
+  OrderUpdateOutbox(Path directory, Sender sender, long retryDelayMillis) throws IOException {
+    this.directory = directory;
+    this.sender = sender;
+    this.retryDelayMillis = retryDelayMillis;
+    Files.createDirectories(directory);
+    recover();
+    dispatcher = new Thread(this::dispatchLoop, "order-update-outbox");
+    dispatcher.setDaemon(true);
+    dispatcher.start();
+  }
+
+  /** Durably appends an update for {@code orderId}. */
+  public void append(String orderId, String body) throws IOException {
+    if (orderId.indexOf('\n') >= 0) {
+      throw new IllegalArgumentException("orderId cannot contain a newline");
+    }
+    byte[] payload = (orderId + '\n' + body).getBytes(StandardCharsets.UTF_8);
+    if (payload.length > MAX_RECORD_BYTES) {
+      throw new IOException("Order update exceeds " + MAX_RECORD_BYTES + " bytes");
+    }
+    CRC32 crc = new CRC32();
+    crc.update(payload, 0, payload.length);
+    ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+    record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+
+    long seq;
+    synchronized (writeLock) {
+      if (closed) {
+        throw new ClosedChannelException();
+      }
+      if (writePosition > 0 && writePosition + record.remaining() > SEGMENT_BYTES) {
+        rollSegment();
+      }
+      while (record.hasRemaining()) {
+        writePosition += writeChannel.write(record, writePosition);
+      }
+      seq = ++appendedSeq;
+      writeLock.notifyAll();
+    }
+    awaitDurable(seq);
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    dispatcher.interrupt();
+    try {
+      dispatcher.join(TimeUnit.SECONDS.toMillis(10));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (writeLock) {
+      writeChannel.force(false);
+      writeChannel.close();
+    }
+  }
+
+  private void awaitDurable(long seq) throws IOException {
+    synchronized (flushLock) {
+      while (durableSeq.get() < seq) {
+        FileChannel channel;
+        long target;
+        synchronized (writeLock) {
+          channel = writeChannel;
+          target = appendedSeq;
+        }
+        try {
+          channel.force(false);
+          durableSeq.accumulateAndGet(target, Math::max);
+        } catch (ClosedChannelException e) {
+          if (closed) {
+            throw e;
+          }
+          // The segment was rolled, which forces it first; check again.
+        }
+      }
+    }
+  }
+
+  /** Must hold writeLock. */
+  private void rollSegment() throws IOException {
+    writeChannel.force(false);
+    durableSeq.accumulateAndGet(appendedSeq, Math::max);
+    writeChannel.close();
+    writeSegment++;
+    writePosition = 0;
+    writeChannel = openSegment(writeSegment);
+  }
+
+  private void recover() throws IOException {
+    List<Long> segments = listSegments();
+    readSegment = segments.isEmpty() ? 0 : segments.get(0);
+    readPosition = 0;
+    Path cursor = directory.resolve(CURSOR_FILE);
+    if (Files.exists(cursor)) {
+      String[] saved = new String(Files.readAllBytes(cursor), StandardCharsets.UTF_8).split(" ");
+      readSegment = Long.parseLong(saved[0].trim());
+      readPosition = Long.parseLong(saved[1].trim());
+    }
+    for (long segment : segments) {
+      if (segment < readSegment) {
+        Files.deleteIfExists(segmentPath(segment));
+      }
+    }
+
+    if (!segments.contains(readSegment)) {
+      // The cursor's segment was deleted after it was fully sent; resume at the next one.
+      for (long segment : segments) {
+        if (segment > readSegment) {
+          readSegment = segment;
+          readPosition = 0;
+          break;
+        }
+      }
+    }
+    oldestSegment = readSegment;
+    writeSegment =
+        segments.isEmpty()
+            ? readSegment
+            : Math.max(readSegment, segments.get(segments.size() - 1));
+    writeChannel = openSegment(writeSegment);
+    // Drop any record torn by a crash part way through a write, and set aside damaged ones.
+    writePosition = 0;
+    while (true) {
+      long next = nextRecordEnd(writeChannel, writePosition, writeChannel.size());
+      if (next < 0) {
+        break;
+      }
+      writePosition = next;
+    }
+    long size = writeChannel.size();
+    if (size > writePosition) {
+      if (isTorn(writeChannel, writePosition, size)) {
+        LOGGER.warn("Truncating torn record in segment {} at {}", writeSegment, writePosition);
+      } else {
+        setAside(writeChannel, writeSegment, writePosition, size);
+      }
+      writeChannel.truncate(writePosition);
+    }
+    if (readSegment == writeSegment && readPosition > writePosition) {
+      readPosition = writePosition;
+    }
+  }
+
+  private void dispatchLoop() {
+    while (!closed) {
+      try {
+        if (!dispatchNext()) {
+          if (unsavedRecords > 0) {
+            saveCursor();
+          }
+          waitForWork();
+        }
+      } catch (InterruptedException e) {
+        break;
+      } catch (IOException | RuntimeException e) {
+        LOGGER.error("Order update outbox dispatch failed", e);
+        try {
+          TimeUnit.MILLISECONDS.sleep(retryDelayMillis);
+        } catch (InterruptedException interrupted) {
+          break;
+        }
+      }
+    }
+    try {
+      saveCursor();
+      if (readChannel != null) {
+        readChannel.close();
+      }
+    } catch (IOException e) {
+      LOGGER.warn("Unable to save order update outbox cursor", e);
+    }
+  }
+
+  /** Sends a parked update or the next record, returning false if there is nothing to do yet. */
+  private boolean dispatchNext() throws IOException {
+    if (retryParked()) {
+      return true;
+    }
+    if (parkedRecords >= MAX_PARKED_RECORDS) {
+      return false;
+    }
+    long limit;
+    boolean activeSegment;
+    synchronized (writeLock) {
+      activeSegment = readSegment == writeSegment;
+      limit = activeSegment ? writePosition : Long.MAX_VALUE;
+    }
+    if (readChannel == null) {
+      readChannel = FileChannel.open(segmentPath(readSegment), StandardOpenOption.READ);
+    }
+    if (!activeSegment) {
+      limit = readChannel.size();
+    }
+    if (readPosition >= limit) {
+      if (activeSegment) {
+        return false;
+      }
+      // Everything in this older segment has been read.
+      readChannel.close();
+      readChannel = null;
+      readSegment++;
+      readPosition = 0;
+      saveCursor();
+      return true;
+    }
+
+    long end = nextRecordEnd(readChannel, readPosition, limit);
+    if (end < 0) {
+      quarantine();
+      return true;
+    }
+    int length = (int) (end - readPosition - HEADER_BYTES);
+    ByteBuffer payload = ByteBuffer.allocate(length);
+    readFully(readChannel, payload, readPosition + HEADER_BYTES);
+    String record = new String(payload.array(), 0, length, StandardCharsets.UTF_8);
+    int separator = record.indexOf('\n');
+    String orderId = record.substring(0, separator);
+    Parked update = new Parked(readSegment, readPosition, record.substring(separator + 1));
+    readPosition = end;
+
+    ParkedOrder order = parked.get(orderId);
+    if (order != null) {
+      // An earlier update to this order is still waiting, so this one goes after it
+      order.updates.add(update);
+      parkedRecords++;
+    } else if (!trySend(orderId, update.body)) {
+      order = new ParkedOrder();
+      order.updates.add(update);
+      parkedRecords++;
+      parked.put(orderId, order);
+      scheduleRetry(order);
+    }
+    if (++unsavedRecords >= CURSOR_SAVE_INTERVAL) {
+      saveCursor();
+    }
+    return true;
+  }
+
+  /** Retries one parked order whose retry is due, returning false if none is. */
+  private boolean retryParked() {
+    long now = System.nanoTime();
+    if (parked.isEmpty() || nextRetryNanos - now > 0) {
+      return false;
+    }
+    nextRetryNanos = now + TimeUnit.MILLISECONDS.toNanos(MAX_RETRY_DELAY_MILLIS);
+    for (Iterator<Map.Entry<String, ParkedOrder>> it = parked.entrySet().iterator();
+        it.hasNext(); ) {
+      Map.Entry<String, ParkedOrder> entry = it.next();
+      ParkedOrder order = entry.getValue();
+      if (order.retryAtNanos - now > 0) {
+        nextRetryNanos = Math.min(nextRetryNanos, order.retryAtNanos);
+        continue;
+      }
+      // Orders after this one haven't been looked at, so look again on the next call
+      nextRetryNanos = now;
+      while (!order.updates.isEmpty()) {
+        if (!trySend(entry.getKey(), order.updates.peek().body)) {
+          order.attempts++;
+          scheduleRetry(order);
+          nextRetryNanos = now;
+          return true;
+        }
+        order.updates.poll();
+        parkedRecords--;
+        unsavedRecords++;
+      }
+      it.remove();
+      return true;
+    }
+    return false;
+  }
+
+  private void scheduleRetry(ParkedOrder order) {
+    long delay = Math.min(retryDelayMillis << Math.min(order.attempts, 10),
+        MAX_RETRY_DELAY_MILLIS);
+    order.retryAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+    if (parked.size() == 1 || order.retryAtNanos - nextRetryNanos < 0) {
+      nextRetryNanos = order.retryAtNanos;
+    }
+  }
+
+  private boolean trySend(String orderId, String body) {
+    try {
+      return sender.send(orderId, body);
+    } catch (IOException | RuntimeException e) {
+      LOGGER.warn("Unable to send update for order " + orderId, e);
+      return false;
+    }
+  }
+
+  /**
+   * Moves the rest of the read segment, from a record that fails its checksum, into a {@code
+   * .corrupt} file and carries on with the next segment. Record boundaries can't be trusted past a
+   * bad header, so the whole remainder is set aside for inspection rather than sent.
+   */
+  private void quarantine() throws IOException {
+    long limit = -1;
+    synchronized (writeLock) {
+      if (readSegment == writeSegment) {
+        // Send new appends to a fresh segment so this one can be set aside
+        limit = writePosition;
+        rollSegment();
+      }
+    }
+    if (limit < 0) {
+      limit = readChannel.size();
+    }
+    setAside(readChannel, readSegment, readPosition, limit);
+    readChannel.close();
+    readChannel = null;
+    readSegment++;
+    readPosition = 0;
+    saveCursor();
+  }
+
+  /** Copies {@code [from, to)} of {@code segment} to a {@code .corrupt} file. */
+  private void setAside(FileChannel channel, long segment, long from, long to)
+      throws IOException {
+    Path corrupt = directory.resolve(String.format("%016d-%d.corrupt", segment, from));
+    try (FileChannel out =
+        FileChannel.open(corrupt, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      long position = from;
+      while (position < to) {
+        position += channel.transferTo(position, to - position, out);
+      }
+      out.force(false);
+    }
+    LOGGER.error("Corrupt order update at {}:{}; moved {} bytes to {}",
+        segment, from, to - from, corrupt);
+  }
+
+  /**
+   * Returns whether the invalid record at {@code position} runs past the end of the file, as a
+   * record cut short by a crash does, rather than being damaged in place.
+   */
+  private static boolean isTorn(FileChannel channel, long position, long size)
+      throws IOException {
+    if (position + HEADER_BYTES > size) {
+      return true;
+    }
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    readFully(channel, header, position);
+    header.flip();
+    int length = header.getInt();
+    return length >= 0 && length <= MAX_RECORD_BYTES && position + HEADER_BYTES + length > size;
+  }
+
+  /** Waits for an append or for the next parked order to be due, at most a second. */
+  private void waitForWork() throws InterruptedException {
+    long waitMillis = TimeUnit.SECONDS.toMillis(1);
+    if (!parked.isEmpty()) {
+      long untilRetry = TimeUnit.NANOSECONDS.toMillis(nextRetryNanos - System.nanoTime());
+      waitMillis = Math.max(1, Math.min(waitMillis, untilRetry));
+    }
+    synchronized (writeLock) {
+      boolean caughtUp = readSegment == writeSegment && readPosition >= writePosition;
+      if ((caughtUp || parkedRecords >= MAX_PARKED_RECORDS) && !closed) {
+        writeLock.wait(waitMillis);
+      }
+    }
+  }
+
+  /**
+   * Saves the position of the oldest update not yet sent, either a parked one or the next record,
+   * and deletes the segments before it.
+   */
+  private void saveCursor() throws IOException {
+    unsavedRecords = 0;
+    long segment = readSegment;
+    long position = readPosition;
+    for (ParkedOrder order : parked.values()) {
+      Parked oldest = order.updates.peek();
+      if (oldest.segment < segment || (oldest.segment == segment && oldest.position < position)) {
+        segment = oldest.segment;
+        position = oldest.position;
+      }
+    }
+    Path tmp = directory.resolve(CURSOR_FILE + ".tmp");
+    Files.write(tmp, (segment + " " + position).getBytes(StandardCharsets.UTF_8));
+    Files.move(
+        tmp,
+        directory.resolve(CURSOR_FILE),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    while (oldestSegment < segment) {
+      Files.deleteIfExists(segmentPath(oldestSegment++));
+    }
+  }
+
+  /** Returns the end of the valid record at {@code position}, or -1 if there is none. */
+  private static long nextRecordEnd(FileChannel channel, long position, long size)
+      throws IOException {
+    if (position + HEADER_BYTES > size) {
+      return -1;
+    }
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    readFully(channel, header, position);
+    header.flip();
+    int length = header.getInt();
+    int checksum = header.getInt();
+    if (length < 0 || length > MAX_RECORD_BYTES || position + HEADER_BYTES + length > size) {
+      return -1;
+    }
+    ByteBuffer payload = ByteBuffer.allocate(length);
+    readFully(channel, payload, position + HEADER_BYTES);
+    CRC32 crc = new CRC32();
+    crc.update(payload.array(), 0, length);
+    return (int) crc.getValue() == checksum ? position + HEADER_BYTES + length : -1;
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position + buffer.position());
+      if (read < 0) {
+        throw new IOException("Unexpected end of order update segment");
+      }
+    }
+  }
+
+  private FileChannel openSegment(long segment) throws IOException {
+    return FileChannel.open(
+        segmentPath(segment),
+        StandardOpenOption.CREATE,
+        StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+  }
+
+  private Path segmentPath(long segment) {
+    return directory.resolve(String.format("%016d%s", segment, SEGMENT_SUFFIX));
+  }
+
+  private List<Long> listSegments() throws IOException {
+    List<Long> segments = new ArrayList<>();
+    try (Stream<Path> files = Files.list(directory)) {
+      files
+          .map(path -> path.getFileName().toString())
+          .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+          .forEach(
+              name ->
+                  segments.add(
+                      Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()))));
+    }
+    Collections.sort(segments);
+    return segments;
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import java.io.IOException;
+import org.apache.http.client.methods.HttpPatch;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Sends queued order updates to the Actions API orders endpoint. */
+public class OrderUpdateSender implements OrderUpdateOutbox.Sender {
+  private static final Logger LOGGER = LoggerFactory.getLogger(OrderUpdateSender.class);
+
+  private final AccessTokenProvider accessTokenProvider;
+  private final ResilientHttpClient httpClient;
+
+  public OrderUpdateSender(
+      AccessTokenProvider accessTokenProvider, ResilientHttpClient httpClient) {
+    this.accessTokenProvider = accessTokenProvider;
+    this.httpClient = httpClient;
+  }
+
+  @Override
+  public boolean send(String orderId, String body) throws IOException {
+    // Setup request with headers
+    HttpPatch patchRequest = new HttpPatch(
+        "https://actions.googleapis.com/v3/orders/" + orderId);
+    patchRequest.setHeader("Content-type", "application/json");
+    patchRequest.setHeader("Authorization", "Bearer " + accessTokenProvider.getTokenValue());
+
+    patchRequest.setEntity(new StringEntity(body, ContentType.APPLICATION_JSON));
+
+    // Make request
+    PooledHttpClient.Response response = httpClient.execute(patchRequest);
+    LOGGER.info(response.getStatusCode() + " " + response.getReasonPhrase());
+    int statusCode = response.getStatusCode();
+    if (statusCode == 429 || statusCode >= 500) {
+      // Still failing after retries; leave it in the outbox.
+      return false;
+    }
+    if (statusCode >= 400) {
+      LOGGER.error("Dropping update for order {} rejected with {}", orderId, statusCode);
+    }
+    return true;
+  }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adds retries and a circuit breaker to a {@link PooledHttpClient}. Transient errors are retried
+ * with full-jitter exponential backoff, waiting for the server's {@code Retry-After} instead when
+ * one is given. A connect or pool timeout is always retried, since the request was never sent.
+ * Read timeouts, dropped connections and 5xx responses are retried only for idempotent methods,
+ * so a POST that may have been processed is not sent twice; 429 and 503 say the request was not
+ * processed and are retried for any method. Errors that won't clear up by themselves, such as an
+ * unknown host or a failed TLS handshake, are not retried.
+ *
+ * <p>After {@code failureThreshold} consecutive failed attempts the circuit opens and calls fail
+ * fast with {@link CircuitOpenException} until {@code openMillis} has passed, after which a single
+ * probe decides whether it closes again.
+ */
+public class ResilientHttpClient {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ResilientHttpClient.class);
+  private static final Set<String> IDEMPOTENT_METHODS =
+      new HashSet<>(Arrays.asList("GET", "HEAD", "OPTIONS", "PUT", "DELETE", "TRACE"));
+
+  /** Thrown instead of calling the API while the circuit is open. */
+  public static final class CircuitOpenException extends IOException {
+    CircuitOpenException() {
+      super("Circuit breaker is open; not calling the Actions API");
+    }
+  }
+
+  enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private final PooledHttpClient delegate;
+  private final int maxAttempts;
+  private final long baseDelayMillis;
+  private final long maxDelayMillis;
+  private final int failureThreshold;
+  private final long openMillis;
+
+  private State state = State.CLOSED;
+  private int consecutiveFailures;
+  private long openedAtMillis;
+  private boolean probeInFlight;
+
+  private final AtomicLong attempts = new AtomicLong();
+  private final AtomicLong retries = new AtomicLong();
+  private final AtomicLong successes = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+  private final AtomicLong opened = new AtomicLong();
+
+  public ResilientHttpClient(PooledHttpClient delegate) {
+    this(delegate, 4, 200, 10000, 5, 30000);
+  }
+
+  public ResilientHttpClient(
+      PooledHttpClient delegate,
+      int maxAttempts,
+      long baseDelayMillis,
+      long maxDelayMillis,
+      int failureThreshold,
+      long openMillis) {
+    this.delegate = delegate;
+    this.maxAttempts = maxAttempts;
+    this.baseDelayMillis = baseDelayMillis;
+    this.maxDelayMillis = maxDelayMillis;
+    this.failureThreshold = failureThreshold;
+    this.openMillis = openMillis;
+  }
+
+  /**
+   * Executes {@code request}, retrying transient failures. Returns the last response received,
+   * which may still be an error status once retries are exhausted.
+   */
+  public PooledHttpClient.Response execute(HttpUriRequest request) throws IOException {
+    boolean idempotent = IDEMPOTENT_METHODS.contains(request.getMethod());
+    for (int attempt = 1; ; attempt++) {
+      if (!allowRequest()) {
+        rejected.incrementAndGet();
+        throw new CircuitOpenException();
+      }
+      attempts.incrementAndGet();
+      PooledHttpClient.Response response;
+      try {
+        response = delegate.execute(request);
+      } catch (IOException e) {
+        recordFailure();
+        if (attempt >= maxAttempts || !isRetryable(e, idempotent)) {
+          throw e;
+        }
+        LOGGER.debug("Retrying {} after {}", request.getURI(), e.toString());
+        backoff(attempt, null);
+        continue;
+      } catch (RuntimeException | Error e) {
+        // Count it like any other failure, which also ends a half-open probe
+        recordFailure();
+        throw e;
+      }
+      if (!isRetryable(response.getStatusCode(), idempotent)) {
+        recordSuccess();
+        return response;
+      }
+      recordFailure();
+      Long retryAfterMillis = retryAfterMillis(response.getHeader("Retry-After"));
+      if (attempt >= maxAttempts
+          || (retryAfterMillis != null && retryAfterMillis > maxDelayMillis)) {
+        return response;
+      }
+      LOGGER.debug("Retrying {} after status {}", request.getURI(), response.getStatusCode());
+      backoff(attempt, retryAfterMillis);
+    }
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  public long getAttempts() {
+    return attempts.get();
+  }
+
+  public long getRetries() {
+    return retries.get();
+  }
+
+  public long getSuccesses() {
+    return successes.get();
+  }
+
+  public long getFailures() {
+    return failures.get();
+  }
+
+  /** Returns the number of calls short-circuited while the breaker was open. */
+  public long getRejected() {
+    return rejected.get();
+  }
+
+  /** Returns the number of times the breaker has opened. */
+  public long getOpened() {
+    return opened.get();
+  }
+
+  private static boolean isRetryable(int statusCode, boolean idempotent) {
+    if (statusCode == 429 || statusCode == 503) {
+      return true;
+    }
+    return idempotent && (statusCode == 500 || statusCode == 502 || statusCode == 504);
+  }
+
+  private static boolean isRetryable(IOException e, boolean idempotent) {
+    if (e instanceof ConnectTimeoutException) {
+      // Includes waiting for a pooled connection; either way nothing was sent
+      return true;
+    }
+    if (e instanceof ConnectException) {
+      return false;
+    }
+    return idempotent
+        && (e instanceof SocketTimeoutException
+            || e instanceof NoHttpResponseException
+            || e instanceof SocketException);
+  }
+
+  private void backoff(int attempt, Long retryAfterMillis) throws IOException {
+    retries.incrementAndGet();
+    long delay;
+    if (retryAfterMillis != null) {
+      delay = retryAfterMillis;
+    } else {
+      long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 20));
+      delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+    try {
+      TimeUnit.MILLISECONDS.sleep(delay);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting to retry", e);
+    }
+  }
+
+  /** Parses a Retry-After header given either in seconds or as an HTTP date. */
+  static Long retryAfterMillis(String retryAfter) {
+    if (retryAfter == null) {
+      return null;
+    }
+    try {
+      return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim())));
+    } catch (NumberFormatException e) {
+      Date date = DateUtils.parseDate(retryAfter);
+      return date == null ? null : Math.max(0, date.getTime() - System.currentTimeMillis());
+    }
+  }
+
+  private synchronized boolean allowRequest() {
+    switch (state) {
+      case OPEN:
+        if (System.currentTimeMillis() - openedAtMillis < openMillis) {
+          return false;
+        }
+        transition(State.HALF_OPEN);
+        probeInFlight = true;
+        return true;
+      case HALF_OPEN:
+        if (probeInFlight) {
+          return false;
+        }
+        probeInFlight = true;
+        return true;
+      default:
+        return true;
+    }
+  }
+
+  private synchronized void recordSuccess() {
+    successes.incrementAndGet();
+    consecutiveFailures = 0;
+    probeInFlight = false;
+    if (state != State.CLOSED) {
+      transition(State.CLOSED);
+    }
+  }
+
+  private synchronized void recordFailure() {
+    failures.incrementAndGet();
+    consecutiveFailures++;
+    probeInFlight = false;
+    if (state == State.HALF_OPEN
+        || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+      openedAtMillis = System.currentTimeMillis();
+      opened.incrementAndGet();
+      transition(State.OPEN);
+    }
+  }
+
+  private void transition(State next) {
+    LOGGER.info("Circuit breaker {} -> {}", state, next);
+    state = next;
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generates unique, increasing order ids such as {@code K7-0H3ZP4Q2X1} from a node id, the
+ * current time and a sequence number.
+ *
+ * <p>The id is a two character node id followed by a 50 bit value: 31 bits of seconds since
+ * 2019-01-01 and a 19 bit sequence within the second, both written in Crockford base 32 so ids
+ * avoid easily confused letters. The value is advanced with a single compare-and-set, taking the
+ * larger of the previous value plus one and the current time with a zero sequence, so ids never
+ * repeat or go backwards on a node even when more than 2^19 are issued in one second or the clock
+ * steps back.
+ */
+public final class SequentialOrderIdGenerator implements OrderIdGenerator {
+  private static final Logger LOGGER = LoggerFactory.getLogger(SequentialOrderIdGenerator.class);
+  static final int ID_LENGTH = 13;
+  private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+  private static final int SEQUENCE_BITS = 19;
+  private static final int VALUE_CHARS = 10;
+  private static final long EPOCH_SECONDS = 1546300800L;
+  private static final int MAX_NODE = ALPHABET.length * ALPHABET.length - 1;
+  static final String NODE_PROPERTY = "actions.orderIdNode";
+  private static final String INSTANCE_ENV = "GAE_INSTANCE";
+
+  private static SequentialOrderIdGenerator shared;
+
+  private final char node0;
+  private final char node1;
+  private final AtomicLong state = new AtomicLong();
+
+  /** @param node distinguishes ids from different instances, from 0 to 1023 */
+  public SequentialOrderIdGenerator(int node) {
+    if (node < 0 || node > MAX_NODE) {
+      throw new IllegalArgumentException("node must be between 0 and " + MAX_NODE);
+    }
+    node0 = ALPHABET[node / ALPHABET.length];
+    node1 = ALPHABET[node % ALPHABET.length];
+  }
+
+  /**
+   * Returns the generator for this process. Its node id is taken from the {@code
+   * actions.orderIdNode} system property when set, otherwise from a hash of the App Engine
+   * instance id, otherwise chosen at random. Only the property guarantees that concurrently
+   * running instances use different nodes.
+   */
+  public static synchronized SequentialOrderIdGenerator shared() {
+    if (shared == null) {
+      shared = new SequentialOrderIdGenerator(defaultNode());
+    }
+    return shared;
+  }
+
+  private static int defaultNode() {
+    String property = System.getProperty(NODE_PROPERTY);
+    if (property != null) {
+      try {
+        int node = Integer.parseInt(property.trim());
+        if (node >= 0 && node <= MAX_NODE) {
+          return node;
+        }
+      } catch (NumberFormatException e) {
+        // Reported below
+      }
+      LOGGER.warn("Ignoring {}={}, which is not a node id from 0 to {}",
+          NODE_PROPERTY, property, MAX_NODE);
+    }
+    String instance = System.getenv(INSTANCE_ENV);
+    if (instance != null && !instance.isEmpty()) {
+      return Math.floorMod(instance.hashCode(), MAX_NODE + 1);
+    }
+    int node = ThreadLocalRandom.current().nextInt(MAX_NODE + 1);
+    LOGGER.info("Using random order id node {}; set {} to pin it", node, NODE_PROPERTY);
+    return node;
+  }
+
+  @Override
+  public String nextId() {
+    char[] id = new char[ID_LENGTH];
+    nextId(id, 0);
+    return new String(id);
+  }
+
+  /** Writes the next id into {@code buffer} at {@code offset}, without allocating. */
+  public void nextId(char[] buffer, int offset) {
+    long now =
+        (TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) - EPOCH_SECONDS)
+            << SEQUENCE_BITS;
+    long value;
+    long previous;
+    do {
+      previous = state.get();
+      value = Math.max(previous + 1, now);
+    } while (!state.compareAndSet(previous, value));
+
+    buffer[offset] = node0;
+    buffer[offset + 1] = node1;
+    buffer[offset + 2] = '-';
+    for (int i = offset + ID_LENGTH - 1; i >= offset + ID_LENGTH - VALUE_CHARS; i--) {
+      buffer[i] = ALPHABET[(int) (value & 31)];
+      value >>>= 5;
+    }
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class OrderUpdateOutboxTest {
+
+  @TempDir
+  Path directory;
+
+  /** Records every update it is given. */
+  private static final class RecordingSender implements OrderUpdateOutbox.Sender {
+    final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    public boolean send(String orderId, String body) {
+      sent.add(orderId + ":" + body);
+      return true;
+    }
+  }
+
+  @Test
+  public void sentUpdatesAreNotDeliveredAgainAfterReopening() throws Exception {
+    RecordingSender first = new RecordingSender();
+    try (OrderUpdateOutbox outbox = new OrderUpdateOutbox(directory, first, 10)) {
+      outbox.append("a", "1");
+      outbox.append("b", "1");
+      outbox.append("a", "2");
+      await(() -> first.sent.size() == 3);
+    }
+    assertEquals(Arrays.asList("a:1", "b:1", "a:2"), first.sent);
+
+    RecordingSender second = new RecordingSender();
+    try (OrderUpdateOutbox outbox = new OrderUpdateOutbox(directory, second, 10)) {
+      outbox.append("c", "1");
+      await(() -> second.sent.size() == 1);
+    }
+    assertEquals(Collections.singletonList("c:1"), second.sent);
+  }
+
+  @Test
+  public void unsentUpdatesSurviveATornTail() throws Exception {
+    try (OrderUpdateOutbox outbox = new OrderUpdateOutbox(directory, (id, body) -> false, 10)) {
+      outbox.append("a", "1");
+      outbox.append("a", "2");
+    }
+    // A crash part way through writing a third record
+    Path segment = segments().get(0);
+    long size = Files.size(segment);
+    ByteBuffer torn = ByteBuffer.allocate(11).putInt(100).putInt(0).put(new byte[3]);
+    torn.flip();
+    Files.write(segment, torn.array(), StandardOpenOption.APPEND);
+
+    RecordingSender sender = new RecordingSender();
+    try (OrderUpdateOutbox outbox = new OrderUpdateOutbox(directory, sender, 10)) {
+      await(() -> sender.sent.size() == 2);
+      assertEquals(size, Files.size(segment));
+    }
+    assertEquals(Arrays.asList("a:1", "a:2"), sender.sent);
+  }
+
+  @Test
+  public void failingOrderDoesNotHoldUpOthers() throws Exception {
+    AtomicInteger failures = new AtomicInteger(3);
+    List<String> sent = Collections.synchronizedList(new ArrayList<>());
+    OrderUpdateOutbox.Sender sender = (orderId, body) -> {
+      if (orderId.equals("slow") && failures.getAndDecrement() > 0) {
+        return false;
+      }
+      sent.add(orderId + ":" + body);
+      return true;
+    };
+    try (OrderUpdateOutbox outbox = new OrderUpdateOutbox(directory, sender, 10)) {
+      outbox.append("slow", "1");
+      outbox.append("fast", "1");
+      outbox.append("slow", "2");
+      outbox.append("fast", "2");
+      await(() -> sent.size() == 4);
+    }
+    assertEquals(Arrays.asList("fast:1", "fast:2", "slow:1", "slow:2"), sent);
+  }
+
+  private List<Path> segments() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files
+          .filter(path -> path.toString().endsWith(".seg"))
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.nanoTime() < deadline, "Timed out waiting for the outbox");
+      TimeUnit.MILLISECONDS.sleep(10);
+    }
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.message.BasicHeader;
+import org.junit.jupiter.api.Test;
+
+public class ResilientHttpClientTest {
+
+  /** Plays back a fixed list of outcomes: a status code, or an exception to throw. */
+  private static final class ScriptedClient extends PooledHttpClient {
+    final Deque<Object> outcomes;
+    int calls;
+
+    ScriptedClient(Object... outcomes) {
+      super(1, 1, 1000, 1000, 1000);
+      this.outcomes = new ArrayDeque<>(Arrays.asList(outcomes));
+    }
+
+    @Override
+    public Response execute(HttpUriRequest request) throws IOException {
+      calls++;
+      Object outcome = outcomes.poll();
+      if (outcome instanceof IOException) {
+        throw (IOException) outcome;
+      }
+      if (outcome instanceof RuntimeException) {
+        throw (RuntimeException) outcome;
+      }
+      return new Response((Integer) outcome, "", new BasicHeader[0]);
+    }
+  }
+
+  private static ResilientHttpClient client(ScriptedClient delegate) {
+    return new ResilientHttpClient(delegate, 3, 1, 1, 100, 60000);
+  }
+
+  @Test
+  public void retriesRequestsThatWereNeverSent() throws IOException {
+    ScriptedClient delegate = new ScriptedClient(new ConnectTimeoutException(), 200);
+    assertEquals(200, client(delegate).execute(new HttpPost("http://example.com")).getStatusCode());
+    assertEquals(2, delegate.calls);
+  }
+
+  @Test
+  public void doesNotResendPostsThatMayHaveBeenProcessed() {
+    ScriptedClient delegate = new ScriptedClient(new SocketTimeoutException(), 200);
+    assertThrows(SocketTimeoutException.class,
+        () -> client(delegate).execute(new HttpPost("http://example.com")));
+    assertEquals(1, delegate.calls);
+  }
+
+  @Test
+  public void retriesIdempotentRequestsAfterTimeouts() throws IOException {
+    ScriptedClient delegate = new ScriptedClient(new SocketTimeoutException(), 502, 200);
+    assertEquals(200, client(delegate).execute(new HttpGet("http://example.com")).getStatusCode());
+    assertEquals(3, delegate.calls);
+  }
+
+  @Test
+  public void doesNotRetryPermanentErrors() {
+    ScriptedClient delegate = new ScriptedClient(new UnknownHostException(), 200);
+    assertThrows(UnknownHostException.class,
+        () -> client(delegate).execute(new HttpGet("http://example.com")));
+    assertEquals(1, delegate.calls);
+  }
+
+  @Test
+  public void probeThatThrowsDoesNotLeaveTheCircuitStuck() throws Exception {
+    ScriptedClient delegate = new ScriptedClient(503, new IllegalStateException(), 200);
+    ResilientHttpClient client = new ResilientHttpClient(delegate, 1, 1, 1, 1, 0);
+    assertEquals(503, client.execute(new HttpGet("http://example.com")).getStatusCode());
+    assertEquals(ResilientHttpClient.State.OPEN, client.getState());
+
+    assertThrows(IllegalStateException.class,
+        () -> client.execute(new HttpGet("http://example.com")));
+    assertEquals(ResilientHttpClient.State.OPEN, client.getState());
+
+    assertEquals(200, client.execute(new HttpGet("http://example.com")).getStatusCode());
+    assertEquals(ResilientHttpClient.State.CLOSED, client.getState());
+  }
+}
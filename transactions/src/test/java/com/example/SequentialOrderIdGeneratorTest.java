@@ -0,0 +1,83 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+
+public class SequentialOrderIdGeneratorTest {
+
+  private static final int THREADS = 16;
+  private static final int IDS_PER_THREAD = 100000;
+
+  @Test
+  public void idsAreUniqueAndIncreasingUnderContention() throws Exception {
+    SequentialOrderIdGenerator generator = new SequentialOrderIdGenerator(42);
+    Set<String> ids = ConcurrentHashMap.newKeySet();
+    CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (int t = 0; t < THREADS; t++) {
+        results.add(executor.submit(() -> {
+          start.await();
+          String previous = "";
+          boolean increasing = true;
+          for (int i = 0; i < IDS_PER_THREAD; i++) {
+            String id = generator.nextId();
+            increasing &= id.compareTo(previous) > 0;
+            previous = id;
+            ids.add(id);
+          }
+          return increasing;
+        }));
+      }
+      start.countDown();
+      for (Future<Boolean> result : results) {
+        assertTrue(result.get(), "ids from one thread should increase");
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(THREADS * IDS_PER_THREAD, ids.size());
+  }
+
+  @Test
+  public void idsAreReadable() {
+    String id = new SequentialOrderIdGenerator(0).nextId();
+    assertEquals(SequentialOrderIdGenerator.ID_LENGTH, id.length());
+    assertTrue(id.matches("00-[0-9A-HJKMNP-TV-Z]{10}"), id);
+  }
+
+  @Test
+  public void nodeIdsKeepGeneratorsApart() {
+    String a = new SequentialOrderIdGenerator(1).nextId();
+    String b = new SequentialOrderIdGenerator(2).nextId();
+    assertNotEquals(a.substring(0, 2), b.substring(0, 2));
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2019 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+
+public class WebhookLoggerTest {
+
+  private static final String ADDRESS_REQUEST = "{"
+      + "\"queryResult\": {\"intent\": {\"displayName\": \"Delivery Address Complete\"}},"
+      + "\"originalDetectIntentRequest\": {\"payload\": {"
+      + "\"user\": {\"userId\": \"user-1\", \"profile\": {\"displayName\": \"Sundar P\"}},"
+      + "\"inputs\": [{\"arguments\": [{\"extension\": {\"location\": {"
+      + "\"coordinates\": {\"latitude\": 37.4219999, \"longitude\": -122.0840575},"
+      + "\"postalAddress\": {\"regionCode\": \"US\","
+      + "\"addressLines\": [\"1600 Amphitheatre Parkway\", \"Building 40\"]}}}}]}]"
+      + "}}}";
+
+  private final WebhookLogger logger = new WebhookLogger(1.0, Collections.emptyMap(), 10000);
+
+  @Test
+  public void arrayAndObjectUserFieldsAreRedactedWhole() {
+    String sanitized = logger.sanitize(ADDRESS_REQUEST);
+
+    assertFalse(sanitized.contains("user-1"), sanitized);
+    assertFalse(sanitized.contains("Sundar"), sanitized);
+    assertFalse(sanitized.contains("Amphitheatre"), sanitized);
+    assertFalse(sanitized.contains("Building 40"), sanitized);
+    assertFalse(sanitized.contains("37.42"), sanitized);
+    assertFalse(sanitized.contains("-122.08"), sanitized);
+    assertTrue(sanitized.contains("\"location\":\"<redacted>\""), sanitized);
+    assertTrue(sanitized.contains("\"displayName\":\"Delivery Address Complete\""), sanitized);
+  }
+
+  @Test
+  public void nestedUserFieldsAreRedactedOutsideARedactedParent() {
+    String sanitized = logger.sanitize(
+        "{\"order\": {\"contents\": [{\"addressLines\": [\"1 Main St\"], \"name\": \"Book\"}]}}");
+
+    assertEquals(
+        "{\"order\":{\"contents\":[{\"addressLines\":\"<redacted>\",\"name\":\"Book\"}]}}",
+        sanitized);
+  }
+
+  @Test
+  public void unparseableBodiesAreNotLogged() {
+    assertEquals("<unparseable>", logger.sanitize("{\"addressLines\": [\"1 Main St\""));
+  }
+
+  @Test
+  public void longBodiesAreTruncatedAfterRedaction() {
+    WebhookLogger shortLogger = new WebhookLogger(1.0, Collections.emptyMap(), 20);
+
+    assertEquals("{\"email\":\"<redacted>...<truncated>",
+        shortLogger.sanitize("{\"email\": \"someone@example.com\", \"name\": \"Book\"}"));
+  }
+}